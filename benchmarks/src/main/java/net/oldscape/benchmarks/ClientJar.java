@@ -0,0 +1,199 @@
+package net.oldscape.benchmarks;
+
+import net.oldscape.patcher.Patcher;
+import net.oldscape.patcher.analysis.VariantDetector;
+import net.oldscape.patcher.transformer.PacketVariantMapper.MethodInfo;
+import net.oldscape.patcher.transformer.PacketVariantMapper.MethodVariants;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.SimpleRemapper;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarFile;
+
+/**
+ * A client jar, original or patched, loaded in its own class loader with its members looked up by their mappings.toml
+ * names. The handles are erased to <code>Object</code> for the client types, and the dummy argument of a method is
+ * bound to the same value for both jars: from packet-variants.toml, or else found in the original jar by
+ * {@link VariantDetector#dummyArgument}.
+ */
+final class ClientJar {
+
+    private final ClassLoader loader;
+    private final boolean patched;
+    private final Path originalJar;
+    private final Map<String, String> mappings;
+    private final Map<String, List<MethodVariants>> variants;
+
+    private ClientJar(ClassLoader loader, boolean patched, Path originalJar, Map<String, String> mappings, Map<String, List<MethodVariants>> variants) {
+        this.loader = loader;
+        this.patched = patched;
+        this.originalJar = originalJar;
+        this.mappings = mappings;
+        this.variants = variants;
+    }
+
+    /**
+     * @param patched     whether the jar uses the mapped names
+     * @param originalJar the source jar the dummy arguments are looked for in
+     */
+    static ClientJar open(Path jar, boolean patched, Path originalJar) {
+        if (Files.notExists(jar) || Files.notExists(originalJar)) {
+            throw new IllegalArgumentException("Could not find " + jar + " or " + originalJar);
+        }
+
+        try {
+            var loader = new URLClassLoader(new URL[]{jar.toUri().toURL()}, ClassLoader.getPlatformClassLoader());
+            return new ClientJar(loader, patched, originalJar, Patcher.loadMappings(), Patcher.loadPacketVariants());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    Class<?> type(String mappedName) {
+        try {
+            return Class.forName(className(mappedName).replace('/', '.'), true, loader);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Could not load " + mappedName, e);
+        }
+    }
+
+    MethodHandle constructor(String mappedOwner, Class<?>... parameterTypes) {
+        var owner = type(mappedOwner);
+
+        try {
+            var handle = lookup(owner).findConstructor(owner, MethodType.methodType(void.class, parameterTypes));
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not find the " + mappedOwner + " constructor", e);
+        }
+    }
+
+    MethodHandle setter(String mappedOwner, String mappedField) {
+        var owner = type(mappedOwner);
+        var name = patched ? mappedField : sourceMember(mappedOwner, mappedField, false);
+
+        try {
+            var handle = lookup(owner).unreflectSetter(owner.getDeclaredField(name));
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not find " + mappedOwner + "." + mappedField, e);
+        }
+    }
+
+    /**
+     * Looks up an instance method, with its dummy argument bound.
+     */
+    MethodHandle method(String mappedOwner, String mappedName) {
+        var owner = type(mappedOwner);
+        var sourceOwner = sourceClass(mappedOwner);
+        var sourceKey = sourceMember(mappedOwner, mappedName, true);
+        var sourceName = sourceKey.substring(0, sourceKey.indexOf('('));
+        var sourceDesc = sourceKey.substring(sourceKey.indexOf('('));
+        var desc = patched ? new SimpleRemapper(mappings).mapMethodDesc(sourceDesc) : sourceDesc;
+
+        try {
+            var type = MethodType.fromMethodDescriptorString(desc, loader);
+            var handle = lookup(owner).findVirtual(owner, patched ? mappedName : sourceName, type);
+            var dummy = dummyArgument(sourceOwner, sourceName, sourceDesc);
+
+            if (dummy != null) {
+                var dummyType = Type.getArgumentTypes(sourceDesc)[dummy.dummyIdx()];
+                handle = MethodHandles.insertArguments(handle, 1 + dummy.dummyIdx(), box(dummyType, dummy.dummyValue()));
+            }
+            return handle.asType(handle.type().erase());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not find " + mappedOwner + "." + mappedName, e);
+        }
+    }
+
+    private MethodInfo dummyArgument(String owner, String name, String desc) {
+        for (var methodVariants : variants.getOrDefault(owner, List.of())) {
+            var method = methodVariants.method();
+
+            if (method.name().equals(name) && method.desc().equals(desc)) {
+                return method;
+            }
+        }
+
+        try (var jarFile = new JarFile(originalJar.toFile())) {
+            var entry = jarFile.getJarEntry(owner + ".class");
+
+            if (entry == null) {
+                return null;
+            }
+            var classNode = new ClassNode();
+
+            try (var stream = jarFile.getInputStream(entry)) {
+                new ClassReader(stream).accept(classNode, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            }
+            return classNode.methods.stream()
+                                    .filter(methodNode -> methodNode.name.equals(name) && methodNode.desc.equals(desc))
+                                    .findFirst()
+                                    .map(VariantDetector::dummyArgument)
+                                    .orElse(null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Boxes a dummy value for its parameter type, a dummy never compared gets zero.
+     */
+    private static Object box(Type type, Object value) {
+        var longValue = value instanceof Boolean bool ? (bool ? 1 : 0) : value == null ? 0 : ((Number) value).longValue();
+
+        return switch (type.getSort()) {
+            case Type.BOOLEAN -> longValue != 0;
+            case Type.BYTE -> (byte) longValue;
+            case Type.CHAR -> (char) longValue;
+            case Type.SHORT -> (short) longValue;
+            case Type.LONG -> longValue;
+            default -> (int) longValue;
+        };
+    }
+
+    private MethodHandles.Lookup lookup(Class<?> owner) throws IllegalAccessException {
+        return MethodHandles.privateLookupIn(owner, MethodHandles.lookup());
+    }
+
+    private String className(String mappedName) {
+        return patched ? mappedName : sourceClass(mappedName);
+    }
+
+    private String sourceClass(String mappedName) {
+        for (var mapping : mappings.entrySet()) {
+            if (!mapping.getKey().contains(".") && mapping.getValue().equals(mappedName)) {
+                return mapping.getKey();
+            }
+        }
+        throw new IllegalArgumentException("No mapping for class " + mappedName);
+    }
+
+    /**
+     * @return the source name of a field, or the source name and descriptor of a method
+     */
+    private String sourceMember(String mappedOwner, String mappedName, boolean method) {
+        var prefix = sourceClass(mappedOwner) + ".";
+
+        for (var mapping : mappings.entrySet()) {
+            var key = mapping.getKey();
+
+            if (key.startsWith(prefix) && key.contains("(") == method && mapping.getValue().equals(mappedName)) {
+                return key.substring(prefix.length());
+            }
+        }
+        throw new IllegalArgumentException("No mapping for " + mappedOwner + "." + mappedName);
+    }
+}
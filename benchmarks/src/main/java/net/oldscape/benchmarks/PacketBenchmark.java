@@ -0,0 +1,109 @@
+package net.oldscape.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the Packet primitives, each invocation reading or writing {@value #CALLS} values from the start of a buffer
+ * of random bytes, or of short strings for <code>gjstr</code>. The strings end with both the newline and the zero
+ * terminators so they're read whichever one the client uses.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PacketBenchmark {
+
+    private static final int CALLS = 512;
+    private static final byte[] STRING = "benchmark\n\0".getBytes(StandardCharsets.ISO_8859_1);
+
+    @Param({"original", "patched"})
+    public String jar;
+
+    private Object numbers;
+    private Object strings;
+
+    @Setup
+    public void setup() throws Throwable {
+        Target.select(jar);
+
+        var random = new Random(0);
+        var bytes = new byte[CALLS * Integer.BYTES];
+        random.nextBytes(bytes);
+        numbers = Target.Packet.NEW.invoke(bytes);
+
+        var text = new byte[CALLS * STRING.length];
+
+        for (var i = 0; i < CALLS; i++) {
+            System.arraycopy(STRING, 0, text, i * STRING.length, STRING.length);
+        }
+        strings = Target.Packet.NEW.invoke(text);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public void g1(Blackhole blackhole) throws Throwable {
+        Target.Packet.SET_POS.invokeExact(numbers, 0);
+
+        for (var i = 0; i < CALLS; i++) {
+            blackhole.consume((int) Target.Packet.G1.invokeExact(numbers));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public void p1() throws Throwable {
+        Target.Packet.SET_POS.invokeExact(numbers, 0);
+
+        for (var i = 0; i < CALLS; i++) {
+            Target.Packet.P1.invokeExact(numbers, i);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public void g4(Blackhole blackhole) throws Throwable {
+        Target.Packet.SET_POS.invokeExact(numbers, 0);
+
+        for (var i = 0; i < CALLS; i++) {
+            blackhole.consume((int) Target.Packet.G4.invokeExact(numbers));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public void gsmart(Blackhole blackhole) throws Throwable {
+        Target.Packet.SET_POS.invokeExact(numbers, 0);
+
+        for (var i = 0; i < CALLS; i++) {
+            blackhole.consume((int) Target.Packet.GSMART.invokeExact(numbers));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public void gjstr(Blackhole blackhole) throws Throwable {
+        Target.Packet.SET_POS.invokeExact(strings, 0);
+
+        for (var i = 0; i < CALLS; i++) {
+            blackhole.consume((Object) Target.Packet.GJSTR.invokeExact(strings));
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package net.oldscape.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HexFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures <code>Player.decodeAppearance</code> decoding the same appearance block over and over. The default block
+ * is a male player wearing nothing, with the default animations, followed by zeros so clients reading a few more
+ * fields still succeed. Another block can be passed with <code>-p appearance=&lt;hex&gt;</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PlayerBenchmark {
+
+    private static final String DEFAULT_APPEARANCE = "00ff" // gender and head icon
+            + "000000000000000000000000" // nothing in the 12 equipment slots
+            + "0000000000" // the 5 colors
+            + "0328" + "0337" + "0333" + "0334" + "0335" + "0336" + "0338" // the 7 animations
+            + "0000000000000001" // the name
+            + "03" + "0000" // combat and skill levels
+            + "00000000000000000000000000000000";
+
+    @Param({"original", "patched"})
+    public String jar;
+
+    /**
+     * The appearance block in hex, or "default".
+     */
+    @Param({"default"})
+    public String appearance;
+
+    private Object player;
+    private Object packet;
+
+    @Setup
+    public void setup() throws Throwable {
+        Target.select(jar);
+        player = (Object) Target.Player.NEW.invokeExact();
+        packet = Target.Packet.NEW.invoke(HexFormat.of().parseHex(appearance.equals("default") ? DEFAULT_APPEARANCE : appearance));
+
+        try {
+            decodeAppearance();
+        } catch (Throwable e) {
+            throw new IllegalStateException("decodeAppearance failed on the appearance block, pass one matching this client with -p appearance=<hex>", e);
+        }
+    }
+
+    @Benchmark
+    public Object decodeAppearance() throws Throwable {
+        Target.Packet.SET_POS.invokeExact(packet, 0);
+        Target.Player.DECODE_APPEARANCE.invokeExact(player, packet);
+        return player;
+    }
+}
@@ -0,0 +1,84 @@
+package net.oldscape.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Path;
+
+/**
+ * The jar benchmarked by this JVM and the handles to its hot methods. The handles are static finals so the JIT treats
+ * them as constants and inlines through them like it would through direct calls, which means a JVM can only ever load
+ * one jar: JMH runs each parameter value in its own forks. The holder classes are initialized on first use, after the
+ * jar was selected. <br/>
+ * The jars are passed with <code>-Doldscape.original=...</code> and <code>-Doldscape.patched=...</code>, the forks
+ * inherit the options of the JVM launching them.
+ */
+final class Target {
+
+    private static final String ORIGINAL = "original";
+    private static final String PATCHED = "patched";
+
+    private static String selected;
+
+    private Target() {
+    }
+
+    static synchronized void select(String jar) {
+        if (!ORIGINAL.equals(jar) && !PATCHED.equals(jar)) {
+            throw new IllegalArgumentException("Unknown jar " + jar + ", expected " + ORIGINAL + " or " + PATCHED);
+        }
+
+        if (selected != null && !selected.equals(jar)) {
+            throw new IllegalStateException("Each jar needs its own JVM, the benchmarks can't run without forks");
+        }
+        selected = jar;
+    }
+
+    private static synchronized ClientJar open() {
+        if (selected == null) {
+            throw new IllegalStateException("No jar selected");
+        }
+        var original = path(ORIGINAL);
+        var patched = PATCHED.equals(selected);
+        return ClientJar.open(patched ? path(PATCHED) : original, patched, original);
+    }
+
+    private static Path path(String jar) {
+        var property = "oldscape." + jar;
+        var path = System.getProperty(property);
+
+        if (path == null) {
+            throw new IllegalStateException("The " + jar + " jar must be passed with -D" + property + "=<path>");
+        }
+        return Path.of(path);
+    }
+
+    static final class Jar {
+
+        static final ClientJar JAR = open();
+
+        private Jar() {
+        }
+    }
+
+    static final class Packet {
+
+        static final MethodHandle NEW = Jar.JAR.constructor("Packet", byte[].class);
+        static final MethodHandle SET_POS = Jar.JAR.setter("Packet", "pos");
+        static final MethodHandle G1 = Jar.JAR.method("Packet", "g1");
+        static final MethodHandle P1 = Jar.JAR.method("Packet", "p1");
+        static final MethodHandle G4 = Jar.JAR.method("Packet", "g4");
+        static final MethodHandle GSMART = Jar.JAR.method("Packet", "gsmart");
+        static final MethodHandle GJSTR = Jar.JAR.method("Packet", "gjstr");
+
+        private Packet() {
+        }
+    }
+
+    static final class Player {
+
+        static final MethodHandle NEW = Jar.JAR.constructor("Player");
+        static final MethodHandle DECODE_APPEARANCE = Jar.JAR.method("Player", "decodeAppearance");
+
+        private Player() {
+        }
+    }
+}
@@ -3,11 +3,15 @@ package net.oldscape.patcher;
 import net.oldscape.patcher.transformer.PacketVariantMapper.MethodInfo;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.CodeSizeEvaluator;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
 import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
 
 import java.util.Arrays;
 import java.util.Objects;
@@ -15,6 +19,16 @@ import java.util.function.Predicate;
 
 public final class AsmUtils {
 
+    /**
+     * HotSpot's default bytecode size limit for inlining any method.
+     */
+    public static final int MAX_INLINE_SIZE = 35;
+
+    /**
+     * HotSpot's default bytecode size limit for inlining frequently called methods.
+     */
+    public static final int FREQ_INLINE_SIZE = 325;
+
     private AsmUtils() {
     }
 
@@ -64,4 +78,45 @@ public final class AsmUtils {
             throw new IllegalStateException("Unhandled insn type " + insnNode.getClass() + ", opcode " + insnNode.getOpcode());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * The shortest instruction pushing the given int.
+     */
+    public static AbstractInsnNode pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            return new InsnNode(Opcodes.ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            return new IntInsnNode(Opcodes.BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            return new IntInsnNode(Opcodes.SIPUSH, value);
+        }
+        return new LdcInsnNode(value);
+    }
+
+    /**
+     * The size in bytes of the method code once written, exact as long as no jump needs a wide offset.
+     */
+    public static int codeSize(MethodNode methodNode) {
+        var evaluator = new CodeSizeEvaluator(null);
+        methodNode.accept(evaluator);
+        return evaluator.getMinSize();
+    }
+
+    /**
+     * The first local variable index not used by the arguments nor by any instruction of the method.
+     */
+    public static int nextFreeLocal(MethodNode methodNode) {
+        var nextLocal = Math.max(methodNode.maxLocals, Type.getArgumentsAndReturnSizes(methodNode.desc) >> 2);
+
+        for (var insn : methodNode.instructions) {
+            if (insn instanceof VarInsnNode varInsn) {
+                var size = switch (varInsn.getOpcode()) {
+                    case Opcodes.LLOAD, Opcodes.DLOAD, Opcodes.LSTORE, Opcodes.DSTORE -> 2;
+                    default -> 1;
+                };
+                nextLocal = Math.max(nextLocal, varInsn.var + size);
+            }
+        }
+        return nextLocal;
+    }
+}
@@ -2,14 +2,29 @@ package net.oldscape.patcher;
 
 import joptsimple.OptionParser;
 import joptsimple.ValueConverter;
+import net.oldscape.patcher.analysis.VariantDetector;
+import net.oldscape.patcher.delta.JarDelta;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class Bootstrap {
 
     public static void main(String[] args) throws IOException, InterruptedException {
         var options = parseOptions(args);
+
+        if (options.applyDelta() != null) {
+            JarDelta.apply(options.srcJar(), options.applyDelta(), options.outJar());
+            return;
+        }
+
+        if (options.detectVariants() != null) {
+            VariantDetector.create(Patcher.loadMappings()).detect(options.srcJar(), options.detectVariants());
+            return;
+        }
         var patcher = Patcher.create(options);
         patcher.process();
     }
@@ -23,22 +38,100 @@ public class Bootstrap {
                               .describedAs("The source jar")
                               .required()
                               .withValuesConvertedBy(pathConverter);
+        var detectVariants = parser.accepts("detect-variants")
+                                   .withRequiredArg()
+                                   .describedAs("Detect the method variants of the source jar and write them to this toml file instead of patching")
+                                   .withValuesConvertedBy(pathConverter);
         var outDirArg = parser.accepts("out")
+                              .requiredUnless(detectVariants)
                               .withRequiredArg()
                               .describedAs("The output jar")
-                              .required()
                               .withValuesConvertedBy(pathConverter);
         var rsaKeyUrl = parser.accepts("rsa-key")
                               .withRequiredArg()
                               .describedAs("The URL to download the rsa key from");
+        var targets = parser.accepts("target")
+                            .availableUnless(rsaKeyUrl)
+                            .withRequiredArg()
+                            .describedAs("A name=url pair, patches one jar per target with the rsa key downloaded from the url");
+        var streaming = parser.accepts("streaming", "Patch the classes one at a time to bound memory usage");
+        var redirectVariants = parser.accepts("redirect-variants", "Call the original Packet methods directly instead of going through their variants");
+        var stripExceptionWrappers = parser.accepts("strip-exception-wrappers", "Remove the RuntimeException wrapper handlers, exceptions are no longer reported through the client's helper");
+        var removeDeadCode = parser.accepts("remove-dead-code", "Remove the code and jump chains the impossible jumps leave unreachable");
+        var foldPredicates = parser.accepts("fold-predicates", "Find the constant static fields and fold the branches made on them");
+        var packetVarHandles = parser.accepts("packet-varhandles", "Rewrite the Packet g2/g4/g8/p2/p4/p8 methods to VarHandle accesses, the client then needs Java 9 or later");
+        var treeShake = parser.accepts("tree-shake", "Remove the classes, methods and fields the client can't reach from its entry points");
+        var treeShakeReport = parser.accepts("tree-shake-report")
+                                    .availableIf(treeShake)
+                                    .withRequiredArg()
+                                    .describedAs("Write the classes and members removed by the tree shaking to this json file")
+                                    .withValuesConvertedBy(pathConverter);
+        var compactLocals = parser.accepts("compact-locals", "Renumber the local variables to close the gaps left by the removed code");
+        var profile = parser.accepts("profile")
+                            .withRequiredArg()
+                            .describedAs("A Class.method selector, using the source or mapped names, of a method to count the calls to");
+        var profileTiming = parser.accepts("profile-timing", "Also measure the time spent in the profiled methods")
+                                  .availableIf(profile);
+        var delta = parser.accepts("delta")
+                           .withRequiredArg()
+                           .describedAs("Also write a delta against the source jar to this path")
+                           .withValuesConvertedBy(pathConverter);
+        var deltaOnly = parser.accepts("delta-only", "Only write the delta, not the patched jar")
+                              .availableIf(delta);
+        var applyDelta = parser.accepts("apply-delta")
+                               .withRequiredArg()
+                               .describedAs("Rebuild the output jar from the source jar and this delta instead of patching")
+                               .withValuesConvertedBy(pathConverter);
+        var inliningReport = parser.accepts("inlining-report")
+                                   .withRequiredArg()
+                                   .describedAs("Write a report of the method sizes against the JIT inlining limits to this json file")
+                                   .withValuesConvertedBy(pathConverter);
+        var loadOrder = parser.accepts("load-order")
+                              .withRequiredArg()
+                              .describedAs("A class loading trace of the client, from -Xlog:class+load or one class name per line, to write the classes in")
+                              .withValuesConvertedBy(pathConverter);
+        var indexList = parser.accepts("index-list", "Write a META-INF/INDEX.LIST jar index");
         var options = parser.parse(args);
         return new PatcherOptions(
                 options.valueOf(srcDirArg),
                 options.valueOf(outDirArg),
-                options.valueOf(rsaKeyUrl)
+                options.valueOf(rsaKeyUrl),
+                parseTargets(options.valuesOf(targets)),
+                options.has(streaming),
+                options.has(redirectVariants),
+                options.has(stripExceptionWrappers),
+                options.has(removeDeadCode),
+                options.has(foldPredicates),
+                options.has(packetVarHandles),
+                options.has(treeShake),
+                options.valueOf(treeShakeReport),
+                options.has(compactLocals),
+                options.valuesOf(profile),
+                options.has(profileTiming),
+                options.valueOf(delta),
+                options.has(deltaOnly),
+                options.valueOf(applyDelta),
+                options.valueOf(inliningReport),
+                options.valueOf(loadOrder),
+                options.has(indexList),
+                options.valueOf(detectVariants)
         );
     }
 
+    private static Map<String, String> parseTargets(List<String> targets) {
+        var parsed = new LinkedHashMap<String, String>();
+
+        for (var target : targets) {
+            var separator = target.indexOf('=');
+
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Target must be formatted as name=url: " + target);
+            }
+            parsed.put(target.substring(0, separator), target.substring(separator + 1));
+        }
+        return parsed;
+    }
+
     private static class PathValueConverter implements ValueConverter<Path> {
 
         @Override
@@ -0,0 +1,82 @@
+package net.oldscape.patcher;
+
+import org.objectweb.asm.tree.ClassNode;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A lightweight view of the classes of a jar, holding only the class hierarchy and the declared members.
+ */
+public final class ClassIndex {
+
+    private final Map<String, ClassInfo> classes;
+
+    private ClassIndex(Map<String, ClassInfo> classes) {
+        this.classes = classes;
+    }
+
+    public static ClassIndex of(Collection<ClassNode> classNodes) {
+        var index = new ClassIndex(new LinkedHashMap<>());
+        classNodes.forEach(index::add);
+        return index;
+    }
+
+    void add(ClassNode classNode) {
+        var fields = new HashSet<String>();
+        var methods = new HashSet<String>();
+
+        classNode.fields.forEach(field -> fields.add(field.name + ":" + field.desc));
+        classNode.methods.forEach(method -> methods.add(method.name + method.desc));
+        classes.put(classNode.name, new ClassInfo(classNode.name, classNode.superName, List.copyOf(classNode.interfaces), fields, methods));
+    }
+
+    public boolean contains(String name) {
+        return classes.containsKey(name);
+    }
+
+    public ClassInfo get(String name) {
+        return classes.get(name);
+    }
+
+    public Collection<ClassInfo> classes() {
+        return classes.values();
+    }
+
+    /**
+     * Checks if the given class is the same as, extends or implements the given parent. Classes outside the jar are
+     * not resolved, so this only answers for hierarchies fully contained in the jar.
+     */
+    public boolean isAssignableTo(String name, String parent) {
+        if (name == null) {
+            return false;
+        }
+        if (name.equals(parent)) {
+            return true;
+        }
+        var info = classes.get(name);
+
+        if (info == null) {
+            return false;
+        }
+        if (isAssignableTo(info.superName(), parent)) {
+            return true;
+        }
+        return info.interfaces().stream().anyMatch(itf -> isAssignableTo(itf, parent));
+    }
+
+    public record ClassInfo(String name, String superName, List<String> interfaces, Set<String> fields, Set<String> methods) {
+
+        public boolean declaresField(String name, String desc) {
+            return fields.contains(name + ":" + desc);
+        }
+
+        public boolean declaresMethod(String name, String desc) {
+            return methods.contains(name + desc);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package net.oldscape.patcher;
+
+import org.objectweb.asm.tree.ClassNode;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Copy-on-write view over a map of classes, a class is copied the first time it's looked up so that transformers
+ * working on the overlay never modify the underlying classes.
+ */
+final class ClassOverlay extends AbstractMap<String, ClassNode> {
+
+    private final Map<String, ClassNode> base;
+    private final Map<String, ClassNode> copies = new HashMap<>();
+
+    ClassOverlay(Map<String, ClassNode> base) {
+        this.base = base;
+    }
+
+    @Override
+    public ClassNode get(Object key) {
+        var copy = copies.get(key);
+
+        if (copy != null) {
+            return copy;
+        }
+        var original = base.get(key);
+
+        if (original == null) {
+            return null;
+        }
+        copy = new ClassNode();
+        original.accept(copy);
+        copies.put(copy.name, copy);
+        return copy;
+    }
+
+    @Override
+    public ClassNode put(String key, ClassNode value) {
+        var previous = get(key);
+        copies.put(key, value);
+        return previous;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return copies.containsKey(key) || base.containsKey(key);
+    }
+
+    @Override
+    public Set<String> keySet() {
+        var keys = new LinkedHashSet<>(base.keySet());
+        keys.addAll(copies.keySet());
+        return keys;
+    }
+
+    @Override
+    public Set<Entry<String, ClassNode>> entrySet() {
+        return keySet().stream()
+                       .map(key -> Map.entry(key, get(key)))
+                       .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    /**
+     * The classes that were looked up or added through this overlay.
+     */
+    Map<String, ClassNode> copies() {
+        return copies;
+    }
+}
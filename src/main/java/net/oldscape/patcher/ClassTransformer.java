@@ -0,0 +1,31 @@
+package net.oldscape.patcher;
+
+import org.objectweb.asm.tree.ClassNode;
+
+import java.util.Map;
+
+/**
+ * A {@link Transformer} that only needs to look at a single class at a time, these can be used by the streaming mode
+ * where classes are loaded, transformed and written one by one.
+ */
+public interface ClassTransformer extends Transformer {
+
+    /**
+     * Called once before any class is transformed with the whole-program facts collected from the source jar.
+     */
+    default void prepare(ClassIndex index) {
+    }
+
+    void transform(ClassNode classNode);
+
+    /**
+     * Called once after every class has been transformed, to report what was done.
+     */
+    default void finish() {
+    }
+
+    @Override
+    default void transform(Map<String, ClassNode> classNodes) {
+        classNodes.values().forEach(this::transform);
+    }
+}
@@ -0,0 +1,98 @@
+package net.oldscape.patcher;
+
+import org.objectweb.asm.commons.Remapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Orders the classes of the output jar: the classes found in a class loading trace come first, in the order they were
+ * loaded so that the client reads the jar sequentially when starting, then all the others by entry name. <br/>
+ * The trace is either the output of a client run with <code>-Xlog:class+load</code> or <code>-verbose:class</code>,
+ * or a list of class names, one per line. The classes can be named by their source or mapped names, so a trace of
+ * either the original or the patched client works.
+ */
+public final class EntryOrder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EntryOrder.class);
+
+    /**
+     * The time of every entry written, so that patching the same jar twice gives the same bytes.
+     */
+    static final LocalDateTime ENTRY_TIME = LocalDateTime.of(2000, 1, 1, 0, 0);
+
+    private static final Pattern UNIFIED_LOGGING = Pattern.compile("\\[class,load\\s*]\\s*(\\S+)\\s+source:");
+    private static final Pattern VERBOSE_CLASS = Pattern.compile("^\\[Loaded (\\S+) from");
+    private static final Pattern CLASS_NAME = Pattern.compile("^[\\w$.\\/]+$");
+
+    private final Map<String, Integer> ranks;
+
+    private EntryOrder(Map<String, Integer> ranks) {
+        this.ranks = ranks;
+    }
+
+    public static EntryOrder byName() {
+        return new EntryOrder(Map.of());
+    }
+
+    public static EntryOrder load(Path trace) throws IOException {
+        var ranks = new HashMap<String, Integer>();
+
+        for (var line : Files.readAllLines(trace)) {
+            var name = className(line.strip());
+
+            if (name != null) {
+                ranks.putIfAbsent(name.replace('.', '/'), ranks.size());
+            }
+        }
+        LOGGER.info("Read the load order of {} classes from {}", ranks.size(), trace);
+        return new EntryOrder(ranks);
+    }
+
+    private static String className(String line) {
+        var unifiedLogging = UNIFIED_LOGGING.matcher(line);
+
+        if (unifiedLogging.find()) {
+            return unifiedLogging.group(1);
+        }
+        var verboseClass = VERBOSE_CLASS.matcher(line);
+
+        if (verboseClass.find()) {
+            return verboseClass.group(1);
+        }
+        return CLASS_NAME.matcher(line).matches() ? line : null;
+    }
+
+    /**
+     * @param names    the source names of the classes
+     * @param remapper the mappings giving the output names
+     * @return the source names in output order
+     */
+    public List<String> sort(Collection<String> names, Remapper remapper) {
+        var sorted = names.stream()
+                          .sorted(Comparator.comparingInt((String name) -> rank(name, remapper))
+                                            .thenComparing(remapper::mapType))
+                          .toList();
+
+        if (!ranks.isEmpty()) {
+            var loaded = names.stream().filter(name -> rank(name, remapper) != Integer.MAX_VALUE).count();
+            LOGGER.info("Ordered {} of {} classes by load order", loaded, names.size());
+        }
+        return sorted;
+    }
+
+    private int rank(String name, Remapper remapper) {
+        var rank = ranks.get(remapper.mapType(name));
+        return rank != null ? rank : ranks.getOrDefault(name, Integer.MAX_VALUE);
+    }
+}
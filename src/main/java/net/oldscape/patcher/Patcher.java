@@ -4,14 +4,27 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.toml.TomlMapper;
-import net.oldscape.patcher.transformer.BitShiftTransformer;
+import net.oldscape.patcher.analysis.InliningReport;
+import net.oldscape.patcher.delta.JarDelta;
+import net.oldscape.patcher.transformer.CompactLocals;
+import net.oldscape.patcher.transformer.FoldConstantPredicates;
 import net.oldscape.patcher.transformer.Jdk9MouseFixer;
 import net.oldscape.patcher.transformer.PacketVariantMapper;
 import net.oldscape.patcher.transformer.PacketVariantMapper.MethodVariants;
+import net.oldscape.patcher.transformer.PacketVarHandles;
+import net.oldscape.patcher.transformer.PacketVariantRedirector;
+import net.oldscape.patcher.transformer.PatternTransformer;
+import net.oldscape.patcher.transformer.PatternTransformer.PatternConfig;
+import net.oldscape.patcher.transformer.ProfilingInjector;
 import net.oldscape.patcher.transformer.RSAPubKeyReplacer;
 import net.oldscape.patcher.transformer.RSAPubKeyReplacer.RSAKeyFields;
+import net.oldscape.patcher.transformer.RemoveDeadCode;
 import net.oldscape.patcher.transformer.RemoveImpossibleJumps;
 import net.oldscape.patcher.transformer.RemoveUnusedMath;
+import net.oldscape.patcher.transformer.StripExceptionWrappers;
+import net.oldscape.patcher.transformer.StripExceptionWrappers.WrapperConfig;
+import net.oldscape.patcher.transformer.TreeShaker;
+import net.oldscape.patcher.transformer.TreeShaker.KeepConfig;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.commons.ClassRemapper;
@@ -31,12 +44,13 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.security.spec.RSAPrivateKeySpec;
 import java.security.spec.RSAPublicKeySpec;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -49,33 +63,112 @@ public class Patcher {
     private static final Logger LOGGER = LoggerFactory.getLogger(Patcher.class);
     private static final ObjectMapper TOML_MAPPER = new TomlMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
 
+    private static final int PARSING_OPTIONS = ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+
     private final List<Transformer> transformers;
+    private final List<Output> outputs;
     private final Path srcJar;
-    private final Path outJar;
-
-    private Patcher(List<Transformer> transformers, Path srcJar, Path outJar) {
+    private final boolean streaming;
+    private final boolean deltaOnly;
+    private final InliningReport inliningReport;
+    private final Path inliningReportPath;
+    private final EntryOrder entryOrder;
+    /**
+     * The jar name the INDEX.LIST is written for, the file name of --out whatever file is actually written, or null
+     * to write no index.
+     */
+    private final String indexedJar;
+
+    private Patcher(List<Transformer> transformers, List<Output> outputs, Path srcJar, boolean streaming, boolean deltaOnly,
+                    InliningReport inliningReport, Path inliningReportPath, EntryOrder entryOrder, String indexedJar) {
         this.transformers = transformers;
+        this.outputs = outputs;
         this.srcJar = srcJar;
-        this.outJar = outJar;
+        this.streaming = streaming;
+        this.deltaOnly = deltaOnly;
+        this.inliningReport = inliningReport;
+        this.inliningReportPath = inliningReportPath;
+        this.entryOrder = entryOrder;
+        this.indexedJar = indexedJar;
     }
 
     public static Patcher create(PatcherOptions options) throws IOException, InterruptedException {
-        RSAPublicKeySpec publicKeySpec;
+        var packetVariants = loadPacketVariants();
+        var transformers = new ArrayList<Transformer>();
+        transformers.add(PatternTransformer.create(loadPatternConfig()));
+        transformers.add(new Jdk9MouseFixer());
+        transformers.add(new RemoveUnusedMath());
+        transformers.add(new RemoveImpossibleJumps());
+
+        if (options.foldPredicates()) {
+            transformers.add(new FoldConstantPredicates());
+        }
+
+        if (options.stripExceptionWrappers()) {
+            transformers.add(StripExceptionWrappers.create(loadWrapperConfig()));
+        }
+
+        if (options.removeDeadCode()) {
+            transformers.add(new RemoveDeadCode());
+        }
+        transformers.add(PacketVariantMapper.create(packetVariants));
+
+        if (options.redirectVariants()) {
+            transformers.add(PacketVariantRedirector.create(packetVariants));
+        }
+        var rsaKeyFields = loadRsaKeyFields();
+
+        if (options.treeShake()) {
+            transformers.add(TreeShaker.create(loadKeepConfig(), loadMappings(), rsaKeyFields, options.treeShakeReport()));
+        }
+
+        if (options.packetVarHandles()) {
+            transformers.add(PacketVarHandles.create(loadMappings(), packetVariants));
+        }
+
+        if (!options.profile().isEmpty()) {
+            transformers.add(ProfilingInjector.create(options.profile(), loadMappings(), options.profileTiming()));
+        }
+
+        if (options.compactLocals()) {
+            transformers.add(new CompactLocals());
+        }
+        var outputs = new ArrayList<Output>();
 
-        if (options.loginKeyUrl() == null) {
-            publicKeySpec = loadOrGenRsaPubKey();
+        if (options.targets().isEmpty()) {
+            RSAPublicKeySpec publicKeySpec;
+
+            if (options.loginKeyUrl() == null) {
+                publicKeySpec = loadOrGenRsaPubKey();
+            } else {
+                publicKeySpec = loadRsaPubKey(options.loginKeyUrl());
+            }
+            outputs.add(new Output(options.outJar(), options.delta(), List.of(RSAPubKeyReplacer.create(publicKeySpec, rsaKeyFields))));
         } else {
-            publicKeySpec = loadRsaPubKey(options.loginKeyUrl());
+            if (options.streaming()) {
+                throw new IllegalArgumentException("Multiple targets can't be patched in streaming mode");
+            }
+
+            for (var target : options.targets().entrySet()) {
+                var name = target.getKey();
+                var publicKeySpec = loadRsaPubKey(target.getValue());
+                var delta = options.delta() == null ? null : withSuffix(options.delta(), name);
+
+                outputs.add(new Output(withSuffix(options.outJar(), name), delta, List.of(RSAPubKeyReplacer.create(publicKeySpec, rsaKeyFields))));
+            }
+        }
+        InliningReport inliningReport = null;
+
+        if (options.inliningReport() != null) {
+            if (options.streaming()) {
+                throw new IllegalArgumentException("The inlining report can't be made in streaming mode");
+            }
+            inliningReport = InliningReport.create(loadMappings());
         }
-        var transformers = List.of(
-                new BitShiftTransformer(),
-                new Jdk9MouseFixer(),
-                new RemoveUnusedMath(),
-                new RemoveImpossibleJumps(),
-                RSAPubKeyReplacer.create(publicKeySpec, loadRsaKeyFields()),
-                PacketVariantMapper.create(loadPacketVariants())
-        );
-        return new Patcher(transformers, options.srcJar(), options.outJar());
+        var entryOrder = options.loadOrder() == null ? EntryOrder.byName() : EntryOrder.load(options.loadOrder());
+
+        return new Patcher(transformers, outputs, options.srcJar(), options.streaming(), options.deltaOnly(), inliningReport, options.inliningReport(),
+                entryOrder, options.indexList() ? options.outJar().getFileName().toString() : null);
     }
 
     public void process() throws IOException {
@@ -83,72 +176,300 @@ public class Patcher {
             LOGGER.error("Could not find src jar.");
             return;
         }
+        var targets = new ArrayList<Path>(outputs.size());
+
+        for (var output : outputs) {
+            targets.add(deltaOnly ? Files.createTempFile("patched-client", ".jar") : output.jar());
+        }
+
+        if (streaming) {
+            processStreaming(targets.get(0));
+        } else {
+            processInMemory(targets);
+        }
+
+        if (inliningReport != null) {
+            inliningReport.write(targets.get(0), inliningReportPath);
+        }
+        var renamedEntries = renamedEntries(loadMappings());
+
+        for (var i = 0; i < outputs.size(); i++) {
+            var delta = outputs.get(i).delta();
+
+            if (delta != null) {
+                JarDelta.create(srcJar, targets.get(i), delta, renamedEntries);
+            }
+
+            if (deltaOnly) {
+                Files.delete(targets.get(i));
+            }
+        }
+    }
+
+    /**
+     * Runs the shared transformers once, then the transformers of each output. With more than one output each one
+     * works on a copy-on-write overlay, the classes none of them touched are serialized once and reused by all.
+     */
+    private void processInMemory(List<Path> targets) throws IOException {
         var classNodes = loadJar(srcJar);
+        var index = ClassIndex.of(classNodes.values());
+        var remapper = new SimpleRemapper(loadMappings());
+
+        transformShared(classNodes, index);
+
+        if (outputs.size() == 1) {
+            transform(outputs.get(0).transformers(), classNodes, index);
+            saveJar(targets.get(0), classNodes, remapper);
+            return;
+        }
+        var sharedClasses = new HashMap<String, byte[]>();
+
+        for (var i = 0; i < outputs.size(); i++) {
+            var overlay = new ClassOverlay(classNodes);
+            transform(outputs.get(i).transformers(), overlay, index);
+
+            LOGGER.info("Writing {} with {} branched classes", targets.get(i), overlay.copies().size());
+
+            var names = entryOrder.sort(overlay.keySet(), remapper);
+
+            try (var output = newJar(targets.get(i), names, remapper)) {
+                for (var name : names) {
+                    var copy = overlay.copies().get(name);
+                    var bytes = copy == null ? sharedClasses.computeIfAbsent(name, key -> toBytes(classNodes.get(key), remapper)) : toBytes(copy, remapper);
+
+                    writeClass(output, remapper.mapType(name), bytes);
+                }
+            }
+        }
+    }
+
+    /**
+     * Patches the jar in two phases so that only one class tree is alive at any given time: <br/>
+     * - The first phase indexes the jar without reading any method code and hands the index to the transformers;<br/>
+     * - The second phase loads, transforms, verifies, remaps and writes each class before moving to the next one.
+     */
+    private void processStreaming(Path target) throws IOException {
+        var classTransformers = new ArrayList<ClassTransformer>();
+
+        for (var transformer : concat(transformers, outputs.get(0).transformers())) {
+            if (!(transformer instanceof ClassTransformer classTransformer)) {
+                throw new IllegalStateException(transformer.getClass().getSimpleName() + " needs the whole jar and can't be used in streaming mode");
+            }
+            classTransformers.add(classTransformer);
+        }
+        var index = indexJar(srcJar);
+        classTransformers.forEach(transformer -> transformer.prepare(index));
+
+        var remapper = new SimpleRemapper(loadMappings());
+
+        var names = entryOrder.sort(index.classes().stream().map(ClassIndex.ClassInfo::name).toList(), remapper);
+
+        try (var jarFile = new JarFile(srcJar.toFile());
+             var output = newJar(target, names, remapper)) {
+            for (var name : names) {
+                var classNode = readClass(jarFile, jarFile.getJarEntry(name + ".class"), PARSING_OPTIONS);
+
+                for (var transformer : classTransformers) {
+                    transformer.transform(classNode);
+                }
+                writeClass(output, remapper.mapType(classNode.name), toBytes(classNode, remapper));
+            }
+        }
+        classTransformers.forEach(ClassTransformer::finish);
+    }
+
+    /**
+     * Runs the shared transformers, snapshotting the method sizes after each one when making the inlining report.
+     */
+    private void transformShared(Map<String, ClassNode> classNodes, ClassIndex index) {
+        if (inliningReport == null) {
+            transform(transformers, classNodes, index);
+            return;
+        }
+        inliningReport.snapshot("load", classNodes.values());
+
         for (var transformer : transformers) {
+            transform(List.of(transformer), classNodes, index);
+            inliningReport.snapshot(transformer.getClass().getSimpleName(), classNodes.values());
+        }
+    }
+
+    private static void transform(List<Transformer> transformers, Map<String, ClassNode> classNodes, ClassIndex index) {
+        for (var transformer : transformers) {
+            if (transformer instanceof ClassTransformer classTransformer) {
+                classTransformer.prepare(index);
+            }
             transformer.transform(classNodes);
+
+            if (transformer instanceof ClassTransformer classTransformer) {
+                classTransformer.finish();
+            }
         }
-        saveJar(outJar, classNodes.values(), loadMappings());
     }
 
-    private void saveJar(Path target, Collection<ClassNode> classNodes, Map<String, String> mappings) throws IOException {
+    private void saveJar(Path target, Map<String, ClassNode> classNodes, SimpleRemapper remapper) throws IOException {
+        var names = entryOrder.sort(classNodes.keySet(), remapper);
 
-        try (var output = new JarOutputStream(Files.newOutputStream(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))) {
-            for (var node : classNodes) {
-                var analyzer = new Analyzer<>(new BasicVerifier());
-                for (var methodNode : node.methods) {
-                    try {
-                        analyzer.analyze(node.name, methodNode);
-                    } catch (AnalyzerException e) {
-                        var textifier = new Textifier();
-                        var methodVisitor = new TraceMethodVisitor(textifier);
-                        methodNode.accept(methodVisitor);
+        try (var output = newJar(target, names, remapper)) {
+            for (var name : names) {
+                writeClass(output, remapper.mapType(name), toBytes(classNodes.get(name), remapper));
+            }
+        }
+    }
 
-                        try (var printWriter = new PrintWriter(System.out)) {
-                            textifier.print(printWriter);
-                        }
-                        throw new IllegalStateException("Bytecode correctness failed: " + e.getMessage() + " at " + node.name + "." + methodNode.name + methodNode.desc);
-                    }
-                }
+    /**
+     * Creates the output jar, starting with its INDEX.LIST when enabled.
+     *
+     * @param names the source names of the classes the jar will hold
+     */
+    private JarOutputStream newJar(Path target, List<String> names, SimpleRemapper remapper) throws IOException {
+        var output = new JarOutputStream(Files.newOutputStream(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING));
 
-                var writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
-                var remapper = new SimpleRemapper(mappings);
-                node.accept(new ClassRemapper(writer, remapper));
+        if (indexedJar != null) {
+            writeEntry(output, "META-INF/INDEX.LIST", indexList(indexedJar, names, remapper));
+        }
+        return output;
+    }
 
-                var entry = new JarEntry(mappings.getOrDefault(node.name, node.name) + ".class");
-                output.putNextEntry(entry);
-                output.write(writer.toByteArray());
+    /**
+     * Lists the packages of the jar, and the classes of the default package, in the JarIndex format. Java 18 and later
+     * ignore the index.
+     */
+    private static byte[] indexList(String jarName, List<String> names, SimpleRemapper remapper) {
+        var index = new StringBuilder("JarIndex-Version: 1.0\n\n");
+        index.append(jarName).append('\n');
+
+        names.stream()
+             .map(remapper::mapType)
+             .map(name -> name.contains("/") ? name.substring(0, name.lastIndexOf('/')) : name + ".class")
+             .distinct()
+             .forEach(entry -> index.append(entry).append('\n'));
+        index.append('\n');
+        return index.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void writeClass(JarOutputStream output, String name, byte[] bytes) throws IOException {
+        writeEntry(output, name + ".class", bytes);
+    }
+
+    private static void writeEntry(JarOutputStream output, String name, byte[] bytes) throws IOException {
+        var entry = new JarEntry(name);
+        entry.setTimeLocal(EntryOrder.ENTRY_TIME);
+        output.putNextEntry(entry);
+        output.write(bytes);
+
+        output.closeEntry();
+    }
+
+    private byte[] toBytes(ClassNode node, SimpleRemapper remapper) {
+        verify(node);
+
+        var writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        node.accept(new ClassRemapper(writer, remapper));
+        return writer.toByteArray();
+    }
 
-                output.closeEntry();
+    private void verify(ClassNode node) {
+        var analyzer = new Analyzer<>(new BasicVerifier());
+        for (var methodNode : node.methods) {
+            try {
+                analyzer.analyze(node.name, methodNode);
+            } catch (AnalyzerException e) {
+                var textifier = new Textifier();
+                var methodVisitor = new TraceMethodVisitor(textifier);
+                methodNode.accept(methodVisitor);
+
+                try (var printWriter = new PrintWriter(System.out)) {
+                    textifier.print(printWriter);
+                }
+                throw new IllegalStateException("Bytecode correctness failed: " + e.getMessage() + " at " + node.name + "." + methodNode.name + methodNode.desc);
             }
         }
     }
 
-    private Map<String, ClassNode> loadJar(Path pathToJar) throws IOException {
-        return loadJar(pathToJar, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+    /**
+     * Maps the output entry of each renamed class back to its entry in the source jar.
+     */
+    private static Map<String, String> renamedEntries(Map<String, String> mappings) {
+        var renamedEntries = new HashMap<String, String>();
+
+        for (var mapping : mappings.entrySet()) {
+            // member mappings are keyed by owner.member
+            if (!mapping.getKey().contains(".")) {
+                renamedEntries.put(mapping.getValue() + ".class", mapping.getKey() + ".class");
+            }
+        }
+        return renamedEntries;
+    }
+
+    private static List<Transformer> concat(List<Transformer> first, List<Transformer> second) {
+        var transformers = new ArrayList<>(first);
+        transformers.addAll(second);
+        return transformers;
     }
 
-    private Map<String, ClassNode> loadJar(Path pathToJar, int parsingOptions) throws IOException {
+    /**
+     * Appends a suffix to a file name, before its extension.
+     */
+    private static Path withSuffix(Path path, String suffix) {
+        var fileName = path.getFileName().toString();
+        var extension = fileName.lastIndexOf('.');
+
+        if (extension == -1) {
+            return path.resolveSibling(fileName + "-" + suffix);
+        }
+        return path.resolveSibling(fileName.substring(0, extension) + "-" + suffix + fileName.substring(extension));
+    }
+
+    private Map<String, ClassNode> loadJar(Path pathToJar) throws IOException {
         Map<String, ClassNode> classNodes = new HashMap<>();
 
         try (var jarFile = new JarFile(pathToJar.toString())) {
             var enums = jarFile.entries();
 
             while (enums.hasMoreElements()) {
-                var entry = (JarEntry) enums.nextElement();
+                var entry = enums.nextElement();
 
                 if (!entry.getName().endsWith(".class")) {
                     continue;
                 }
-                var classReader = new ClassReader(jarFile.getInputStream(entry));
-                var classNode = new ClassNode();
-
-                classReader.accept(classNode, parsingOptions);
+                var classNode = readClass(jarFile, entry, PARSING_OPTIONS);
                 classNodes.put(classNode.name, classNode);
             }
         }
         return classNodes;
     }
 
+    /**
+     * Builds the class index one class at a time, without keeping any class tree or method code around.
+     */
+    private ClassIndex indexJar(Path pathToJar) throws IOException {
+        var index = ClassIndex.of(List.of());
+
+        try (var jarFile = new JarFile(pathToJar.toString())) {
+            var enums = jarFile.entries();
+
+            while (enums.hasMoreElements()) {
+                var entry = enums.nextElement();
+
+                if (entry.getName().endsWith(".class")) {
+                    index.add(readClass(jarFile, entry, ClassReader.SKIP_CODE | PARSING_OPTIONS));
+                }
+            }
+        }
+        return index;
+    }
+
+    private ClassNode readClass(JarFile jarFile, JarEntry entry, int parsingOptions) throws IOException {
+        try (var stream = jarFile.getInputStream(entry)) {
+            var classReader = new ClassReader(stream);
+            var classNode = new ClassNode();
+
+            classReader.accept(classNode, parsingOptions);
+            return classNode;
+        }
+    }
+
     private static RSAPublicKeySpec loadRsaPubKey(String url) throws IOException, InterruptedException {
         var httpClient = HttpClient.newHttpClient();
         var request = HttpRequest.newBuilder(URI.create(url))
@@ -215,17 +536,39 @@ public class Patcher {
         }
     }
 
-    private static Map<String, List<MethodVariants>> loadPacketVariants() throws IOException {
+    public static Map<String, List<MethodVariants>> loadPacketVariants() throws IOException {
         try (var stream = Patcher.class.getResourceAsStream("/packet-variants.toml")) {
             return TOML_MAPPER.readValue(stream, new TypeReference<>() {
             });
         }
     }
 
-    private static Map<String, String> loadMappings() throws IOException {
+    private static WrapperConfig loadWrapperConfig() throws IOException {
+        try (var stream = Patcher.class.getResourceAsStream("/exception-wrappers.toml")) {
+            return TOML_MAPPER.readValue(stream, WrapperConfig.class);
+        }
+    }
+
+    private static PatternConfig loadPatternConfig() throws IOException {
+        try (var stream = Patcher.class.getResourceAsStream("/patterns.toml")) {
+            return TOML_MAPPER.readValue(stream, PatternConfig.class);
+        }
+    }
+
+    private static KeepConfig loadKeepConfig() throws IOException {
+        try (var stream = Patcher.class.getResourceAsStream("/tree-shake.toml")) {
+            return TOML_MAPPER.readValue(stream, KeepConfig.class);
+        }
+    }
+
+    public static Map<String, String> loadMappings() throws IOException {
         try (var stream = Patcher.class.getResourceAsStream("/mappings.toml")) {
             return TOML_MAPPER.readValue(stream, new TypeReference<>() {
             });
         }
     }
+
+    private record Output(Path jar, Path delta, List<Transformer> transformers) {
+
+    }
 }
@@ -1,11 +1,32 @@
 package net.oldscape.patcher;
 
 import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
 
 public record PatcherOptions(
         Path srcJar,
         Path outJar,
-        String loginKeyUrl
+        String loginKeyUrl,
+        Map<String, String> targets,
+        boolean streaming,
+        boolean redirectVariants,
+        boolean stripExceptionWrappers,
+        boolean removeDeadCode,
+        boolean foldPredicates,
+        boolean packetVarHandles,
+        boolean treeShake,
+        Path treeShakeReport,
+        boolean compactLocals,
+        List<String> profile,
+        boolean profileTiming,
+        Path delta,
+        boolean deltaOnly,
+        Path applyDelta,
+        Path inliningReport,
+        Path loadOrder,
+        boolean indexList,
+        Path detectVariants
 ) {
 
 }
\ No newline at end of file
@@ -0,0 +1,154 @@
+package net.oldscape.patcher.analysis;
+
+import net.oldscape.patcher.ClassIndex;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Finds the static int-like fields (<code>boolean</code>, <code>byte</code>, <code>char</code>, <code>short</code> and
+ * <code>int</code>) holding a constant, the obfuscator uses them as opaque predicates: <br/>
+ * - Fields never written hold their default value;<br/>
+ * - Fields only written once by their class's <code>&lt;clinit&gt;</code>, with a constant and before any branch,
+ * hold that constant.<br/>
+ * <p>
+ * The writes of all the methods are collected in parallel. Reads made while the class is still initializing could see
+ * the default value instead, the obfuscator doesn't do that.
+ */
+public final class ConstantFields {
+
+    private static final Set<String> INT_DESCRIPTORS = Set.of("Z", "B", "C", "S", "I");
+
+    private ConstantFields() {
+    }
+
+    /**
+     * @return the constant value of each field, keyed by owner.name:desc
+     */
+    public static Map<String, Integer> find(Collection<ClassNode> classNodes, ClassIndex index) {
+        var writes = classNodes.parallelStream()
+                               .flatMap(classNode -> classNode.methods.stream()
+                                                                      .flatMap(methodNode -> writes(index, classNode, methodNode)))
+                               .toList();
+        var candidates = new HashMap<String, Integer>();
+
+        for (var classNode : classNodes) {
+            for (var fieldNode : classNode.fields) {
+                var isStatic = (fieldNode.access & Opcodes.ACC_STATIC) != 0;
+                var isVolatile = (fieldNode.access & Opcodes.ACC_VOLATILE) != 0;
+
+                if (isStatic && !isVolatile && INT_DESCRIPTORS.contains(fieldNode.desc)) {
+                    var value = fieldNode.value instanceof Integer constant ? constant : 0;
+                    candidates.put(key(classNode.name, fieldNode.name, fieldNode.desc), value);
+                }
+            }
+        }
+        var initialized = new HashSet<String>();
+
+        for (var write : writes) {
+            if (!candidates.containsKey(write.field())) {
+                continue;
+            }
+
+            if (write.value() == null || !initialized.add(write.field())) {
+                candidates.remove(write.field());
+            } else {
+                candidates.put(write.field(), write.value());
+            }
+        }
+        return candidates;
+    }
+
+    public static String key(String owner, String name, String desc) {
+        return owner + "." + name + ":" + desc;
+    }
+
+    /**
+     * Resolves a field reference to the class declaring it, following the super classes of the reference owner.
+     *
+     * @return the field key or null if the field isn't declared in the jar
+     */
+    public static String resolve(ClassIndex index, FieldInsnNode fieldInsn) {
+        var owner = fieldInsn.owner;
+
+        while (owner != null) {
+            var info = index.get(owner);
+
+            if (info == null) {
+                return null;
+            }
+
+            if (info.declaresField(fieldInsn.name, fieldInsn.desc)) {
+                return key(owner, fieldInsn.name, fieldInsn.desc);
+            }
+            owner = info.superName();
+        }
+        return null;
+    }
+
+    /**
+     * The static field writes of a method, only the writes of the class initializer to its own fields that happen before
+     * any branch keep their constant value.
+     */
+    private static Stream<Write> writes(ClassIndex index, ClassNode classNode, MethodNode methodNode) {
+        var isClinit = methodNode.name.equals("<clinit>");
+        var branched = false;
+        var writes = Stream.<Write>builder();
+
+        for (var insn : methodNode.instructions) {
+            branched |= insn instanceof JumpInsnNode || insn instanceof TableSwitchInsnNode || insn instanceof LookupSwitchInsnNode;
+
+            if (!(insn instanceof FieldInsnNode fieldInsn) || insn.getOpcode() != Opcodes.PUTSTATIC) {
+                continue;
+            }
+            var field = resolve(index, fieldInsn);
+
+            if (field == null) {
+                continue;
+            }
+            var ownWrite = isClinit && !branched && field.startsWith(classNode.name + ".");
+            writes.add(new Write(field, ownWrite ? intConstant(insn.getPrevious()) : null));
+        }
+        return writes.build();
+    }
+
+    /**
+     * @return the int pushed by the instruction or null if it doesn't push an int constant
+     */
+    public static Integer intConstant(AbstractInsnNode insn) {
+        if (insn == null) {
+            return null;
+        }
+        var opcode = insn.getOpcode();
+
+        if (opcode >= Opcodes.ICONST_M1 && opcode <= Opcodes.ICONST_5) {
+            return opcode - Opcodes.ICONST_0;
+        } else if (opcode == Opcodes.BIPUSH || opcode == Opcodes.SIPUSH) {
+            return ((IntInsnNode) insn).operand;
+        } else if (insn instanceof LdcInsnNode ldcInsn && ldcInsn.cst instanceof Integer constant) {
+            return constant;
+        }
+        return null;
+    }
+
+    /**
+     * @param value the constant written or null if the value isn't known
+     */
+    private record Write(String field, Integer value) {
+
+    }
+}
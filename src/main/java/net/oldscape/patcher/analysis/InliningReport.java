@@ -0,0 +1,277 @@
+package net.oldscape.patcher.analysis;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.commons.SimpleRemapper;
+import org.objectweb.asm.tree.ClassNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.jar.JarFile;
+
+import static net.oldscape.patcher.AsmUtils.FREQ_INLINE_SIZE;
+import static net.oldscape.patcher.AsmUtils.MAX_INLINE_SIZE;
+import static net.oldscape.patcher.AsmUtils.codeSize;
+
+/**
+ * Tracks the code size of every method through the transformers and compares it with HotSpot's inlining limits. <br/>
+ * A snapshot is taken after loading the jar and after each transformer, the final sizes are read back from the
+ * written jar. Methods crossing {@link net.oldscape.patcher.AsmUtils#MAX_INLINE_SIZE} or
+ * {@link net.oldscape.patcher.AsmUtils#FREQ_INLINE_SIZE}, or ending up just above one of them, are flagged and the
+ * methods named in mappings.toml are always reported.
+ */
+public class InliningReport {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InliningReport.class);
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private static final String OUTPUT_STAGE = "output";
+
+    private final Map<String, String> mappings;
+    private final SimpleRemapper remapper;
+    private final Map<String, Map<String, Integer>> stages = new LinkedHashMap<>();
+
+    private InliningReport(Map<String, String> mappings) {
+        this.mappings = mappings;
+        this.remapper = new SimpleRemapper(mappings);
+    }
+
+    public static InliningReport create(Map<String, String> mappings) {
+        return new InliningReport(mappings);
+    }
+
+    /**
+     * Records the code size of every method, keyed by their name in the source jar.
+     */
+    public void snapshot(String stage, Collection<ClassNode> classNodes) {
+        var sizes = new HashMap<String, Integer>();
+
+        for (var classNode : classNodes) {
+            for (var methodNode : classNode.methods) {
+                sizes.put(classNode.name + "." + methodNode.name + methodNode.desc, codeSize(methodNode));
+            }
+        }
+        stages.put(stage, sizes);
+    }
+
+    /**
+     * Reads the final sizes from the patched jar, then writes the report as json and logs it as tables.
+     */
+    public void write(Path patchedJar, Path report) throws IOException {
+        var outputSizes = readOutputSizes(patchedJar);
+        var stageNames = new ArrayList<>(stages.keySet());
+        stageNames.add(OUTPUT_STAGE);
+
+        var allMethods = new TreeSet<String>();
+        stages.values().forEach(stageSizes -> allMethods.addAll(stageSizes.keySet()));
+
+        var methods = new ArrayList<MethodReport>();
+
+        for (var method : allMethods) {
+            var sizes = new ArrayList<Integer>();
+            stages.values().forEach(stageSizes -> sizes.add(stageSizes.get(method)));
+            sizes.add(outputSizes.get(outputName(method)));
+
+            methods.add(methodReport(method, sizes));
+        }
+
+        var summaries = new ArrayList<StageSummary>();
+
+        for (var i = 1; i < stageNames.size(); i++) {
+            summaries.add(stageSummary(stageNames.get(i), methods, i));
+        }
+        JSON_MAPPER.writeValue(report.toFile(), new Report(stageNames, summaries, methods));
+
+        logStages(summaries);
+        logMethods(methods);
+    }
+
+    private Map<String, Integer> readOutputSizes(Path patchedJar) throws IOException {
+        var sizes = new HashMap<String, Integer>();
+
+        try (var jarFile = new JarFile(patchedJar.toFile())) {
+            var enums = jarFile.entries();
+
+            while (enums.hasMoreElements()) {
+                var entry = enums.nextElement();
+
+                if (!entry.getName().endsWith(".class")) {
+                    continue;
+                }
+
+                try (var stream = jarFile.getInputStream(entry)) {
+                    var classNode = new ClassNode();
+                    new ClassReader(stream).accept(classNode, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+                    for (var methodNode : classNode.methods) {
+                        sizes.put(classNode.name + "." + methodNode.name + methodNode.desc, codeSize(methodNode));
+                    }
+                }
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Maps a method from its name in the source jar to its name in the patched jar.
+     */
+    private String outputName(String method) {
+        var ownerEnd = method.indexOf('.');
+        var descStart = method.indexOf('(');
+        var owner = method.substring(0, ownerEnd);
+        var name = method.substring(ownerEnd + 1, descStart);
+        var desc = method.substring(descStart);
+
+        return remapper.mapType(owner) + "." + remapper.mapMethodName(owner, name, desc) + remapper.mapMethodDesc(desc);
+    }
+
+    private MethodReport methodReport(String method, List<Integer> sizes) {
+        var initialSize = sizes.get(0);
+        var finalSize = sizes.get(sizes.size() - 1);
+        var flags = new ArrayList<String>();
+
+        if (finalSize == null) {
+            flags.add("removed");
+        } else if (initialSize == null) {
+            flags.add("added");
+        } else {
+            addCrossing(flags, initialSize, finalSize, MAX_INLINE_SIZE, "max-inline-size");
+            addCrossing(flags, initialSize, finalSize, FREQ_INLINE_SIZE, "freq-inline-size");
+
+            if (isNear(finalSize, MAX_INLINE_SIZE)) {
+                flags.add("near-max-inline-size");
+            }
+
+            if (isNear(finalSize, FREQ_INLINE_SIZE)) {
+                flags.add("near-freq-inline-size");
+            }
+        }
+        var mapped = mappings.containsKey(method);
+        return new MethodReport(outputName(method), method, mapped, sizes, verdict(finalSize), flags);
+    }
+
+    private void addCrossing(List<String> flags, int initialSize, int finalSize, int threshold, String name) {
+        if (initialSize > threshold && finalSize <= threshold) {
+            flags.add("now-within-" + name);
+        } else if (initialSize <= threshold && finalSize > threshold) {
+            flags.add("now-over-" + name);
+        }
+    }
+
+    /**
+     * Whether the size is above the threshold by at most a fifth of it, so a little more shrinking would get it under.
+     */
+    private boolean isNear(int size, int threshold) {
+        return size > threshold && size <= threshold + threshold / 5;
+    }
+
+    private String verdict(Integer size) {
+        if (size == null) {
+            return "removed";
+        } else if (size <= MAX_INLINE_SIZE) {
+            return "inlineable";
+        } else if (size <= FREQ_INLINE_SIZE) {
+            return "inlineable-when-hot";
+        }
+        return "too-large";
+    }
+
+    private StageSummary stageSummary(String stage, List<MethodReport> methods, int stageIdx) {
+        var changedMethods = 0;
+        var savedBytes = 0;
+        var nowWithinMaxInlineSize = 0;
+        var nowWithinFreqInlineSize = 0;
+        var nowOverMaxInlineSize = 0;
+        var nowOverFreqInlineSize = 0;
+
+        for (var method : methods) {
+            var before = method.sizes().get(stageIdx - 1);
+            var after = method.sizes().get(stageIdx);
+
+            if (before == null || after == null || before.equals(after)) {
+                continue;
+            }
+            changedMethods++;
+            savedBytes += before - after;
+
+            if (before > MAX_INLINE_SIZE && after <= MAX_INLINE_SIZE) {
+                nowWithinMaxInlineSize++;
+            } else if (before <= MAX_INLINE_SIZE && after > MAX_INLINE_SIZE) {
+                nowOverMaxInlineSize++;
+            }
+
+            if (before > FREQ_INLINE_SIZE && after <= FREQ_INLINE_SIZE) {
+                nowWithinFreqInlineSize++;
+            } else if (before <= FREQ_INLINE_SIZE && after > FREQ_INLINE_SIZE) {
+                nowOverFreqInlineSize++;
+            }
+        }
+        return new StageSummary(stage, changedMethods, savedBytes, nowWithinMaxInlineSize, nowWithinFreqInlineSize, nowOverMaxInlineSize, nowOverFreqInlineSize);
+    }
+
+    private void logStages(List<StageSummary> summaries) {
+        var table = new StringBuilder("Code size changes per stage:\n");
+        table.append("%-28s %8s %8s %12s %12s %12s %12s%n".formatted("stage", "methods", "saved", "within 35", "within 325", "over 35", "over 325"));
+
+        for (var summary : summaries) {
+            table.append("%-28s %8d %8d %12d %12d %12d %12d%n".formatted(summary.stage(), summary.changedMethods(), summary.savedBytes(),
+                    summary.nowWithinMaxInlineSize(), summary.nowWithinFreqInlineSize(), summary.nowOverMaxInlineSize(), summary.nowOverFreqInlineSize()));
+        }
+        LOGGER.info(table.toString());
+    }
+
+    /**
+     * Only logs the mapped methods and the flagged ones, the json report has every method.
+     */
+    private void logMethods(List<MethodReport> methods) {
+        var table = new StringBuilder("Inlining budget of the mapped and flagged methods:\n");
+        table.append("%-2s %-48s %-32s %8s %8s  %-20s %s%n".formatted("", "method", "original", "initial", "final", "verdict", "flags"));
+
+        for (var method : methods) {
+            if (!method.mapped() && method.flags().isEmpty()) {
+                continue;
+            }
+            var finalSize = method.sizes().get(method.sizes().size() - 1);
+
+            var initialSize = method.sizes().get(0);
+
+            table.append("%-2s %-48s %-32s %8s %8s  %-20s %s%n".formatted(method.mapped() ? "*" : "", method.method(), method.original(),
+                    initialSize == null ? "-" : initialSize, finalSize == null ? "-" : finalSize, method.verdict(), String.join(", ", method.flags())));
+        }
+        LOGGER.info(table.toString());
+    }
+
+    /**
+     * @param stages  the snapshot names, the sizes of each method are listed in the same order
+     * @param summary the changes made by each stage compared to the previous one
+     */
+    public record Report(List<String> stages, List<StageSummary> summary, List<MethodReport> methods) {
+
+    }
+
+    public record StageSummary(String stage, int changedMethods, int savedBytes, int nowWithinMaxInlineSize,
+                               int nowWithinFreqInlineSize, int nowOverMaxInlineSize, int nowOverFreqInlineSize) {
+
+    }
+
+    /**
+     * @param method   the method name in the patched jar
+     * @param original the method name in the source jar
+     * @param mapped   whether the method is named in mappings.toml
+     * @param sizes    the code size after each stage, null before the method is added or once it is removed
+     */
+    public record MethodReport(String method, String original, boolean mapped, List<Integer> sizes, String verdict,
+                               List<String> flags) {
+
+    }
+}
@@ -0,0 +1,745 @@
+package net.oldscape.patcher.analysis;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.toml.TomlMapper;
+import net.oldscape.patcher.transformer.PacketVariantMapper;
+import net.oldscape.patcher.transformer.PacketVariantMapper.MethodInfo;
+import net.oldscape.patcher.transformer.PacketVariantMapper.MethodVariants;
+import net.oldscape.patcher.transformer.StripExceptionWrappers;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.MultiANewArrayInsnNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.BasicInterpreter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.jar.JarFile;
+import java.util.stream.Collectors;
+
+import static net.oldscape.patcher.transformer.PacketVariantMapper.DUMMY_ARGUMENT;
+
+/**
+ * Finds the methods the obfuscator duplicated with a different dummy parameter and writes them in the
+ * packet-variants.toml format. <br/>
+ * Every method gets a fingerprint, hashed from its instruction stream once normalized: <br/>
+ * - The dummy parameter is the int-like parameter only ever compared against constants (or never used), its guards
+ * are folded by taking the jump and the code only they reached is dropped;<br/>
+ * - The RuntimeException wrapper handlers are dropped, their message names the method;<br/>
+ * - Locals are numbered in order of first use, so the parameter order doesn't matter;<br/>
+ * - Jump targets are numbered by instruction position.<br/>
+ * <p>
+ * Methods of the same class sharing a fingerprint are variants of each other, the argument mapping is deduced from the
+ * first use order of the parameters. Methods only calling another method of their class with their own arguments and
+ * a constant dummy are variants of that method as well.
+ */
+public class VariantDetector {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VariantDetector.class);
+    private static final ObjectMapper TOML_MAPPER = new TomlMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    private final Map<String, String> mappings;
+
+    private VariantDetector(Map<String, String> mappings) {
+        this.mappings = mappings;
+    }
+
+    public static VariantDetector create(Map<String, String> mappings) {
+        return new VariantDetector(mappings);
+    }
+
+    public void detect(Path srcJar, Path output) throws IOException {
+        var start = System.nanoTime();
+        var classNodes = readClasses(srcJar);
+
+        var shapes = classNodes.parallelStream()
+                               .flatMap(classNode -> classNode.methods.stream().map(methodNode -> shape(classNode, methodNode)))
+                               .filter(Objects::nonNull)
+                               .collect(Collectors.toMap(MethodShape::key, Function.identity()));
+        var callSiteDummies = callSiteDummies(classNodes, shapes);
+        var variants = group(shapes, callSiteDummies);
+
+        TOML_MAPPER.writeValue(output.toFile(), variants);
+
+        var methodCount = variants.values().stream().mapToInt(List::size).sum();
+        var variantCount = variants.values().stream().flatMap(List::stream).mapToInt(methodVariants -> methodVariants.variants().size()).sum();
+        LOGGER.info("Found {} methods with {} variants among {} candidates in {} ms, written to {}",
+                methodCount, variantCount, shapes.size(), (System.nanoTime() - start) / 1_000_000, output);
+    }
+
+    private List<ClassNode> readClasses(Path srcJar) throws IOException {
+        var classes = new ArrayList<byte[]>();
+
+        try (var jarFile = new JarFile(srcJar.toFile())) {
+            var enums = jarFile.entries();
+
+            while (enums.hasMoreElements()) {
+                var entry = enums.nextElement();
+
+                if (!entry.getName().endsWith(".class")) {
+                    continue;
+                }
+
+                try (var stream = jarFile.getInputStream(entry)) {
+                    classes.add(stream.readAllBytes());
+                }
+            }
+        }
+        return classes.parallelStream()
+                      .map(bytes -> {
+                          var classNode = new ClassNode();
+                          new ClassReader(bytes).accept(classNode, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+                          return classNode;
+                      })
+                      .toList();
+    }
+
+    /**
+     * Finds the dummy parameter of a single method and a value taking its guards, the way {@link #detect} does.
+     *
+     * @return the dummy, with a null value if it's never compared, or null if the method has no dummy parameter
+     */
+    public static MethodInfo dummyArgument(MethodNode original) {
+        var argumentTypes = Type.getArgumentTypes(original.desc);
+        var slots = slots(argumentTypes);
+        var methodNode = new MethodNode(original.access, original.name, original.desc, original.signature, original.exceptions.toArray(String[]::new));
+        original.accept(methodNode);
+        StripExceptionWrappers.strip(methodNode);
+
+        var dummyIdx = findDummy(methodNode, argumentTypes, slots);
+
+        if (dummyIdx == -1) {
+            return null;
+        }
+        var guardValue = foldGuards(methodNode, slots[dummyIdx]);
+        var dummyValue = guardValue == null ? null : dummyValue(argumentTypes[dummyIdx], guardValue);
+        return new MethodInfo(original.name, original.desc, dummyIdx, dummyValue, null);
+    }
+
+    /**
+     * Normalizes and fingerprints a method.
+     *
+     * @return the method shape or null if the method can't be a variant
+     */
+    private MethodShape shape(ClassNode classNode, MethodNode original) {
+        var notVariant = Opcodes.ACC_STATIC | Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE;
+
+        if ((original.access & notVariant) != 0 || original.name.startsWith("<")) {
+            return null;
+        }
+        var argumentTypes = Type.getArgumentTypes(original.desc);
+        var slots = slots(argumentTypes);
+        // the wrapper handler messages load every argument
+        var methodNode = new MethodNode(original.access, original.name, original.desc, original.signature, original.exceptions.toArray(String[]::new));
+        original.accept(methodNode);
+        StripExceptionWrappers.strip(methodNode);
+
+        var dummyIdx = findDummy(methodNode, argumentTypes, slots);
+
+        if (dummyIdx == -1) {
+            return null;
+        }
+        var guardValue = foldGuards(methodNode, slots[dummyIdx]);
+        var dummyValue = guardValue == null ? null : dummyValue(argumentTypes[dummyIdx], guardValue);
+
+        try {
+            var frames = new Analyzer<>(new BasicInterpreter()).analyze(classNode.name, methodNode);
+            var normalized = normalize(methodNode, frames);
+            var ranks = new int[argumentTypes.length];
+
+            for (var argIdx = 0; argIdx < argumentTypes.length; argIdx++) {
+                ranks[argIdx] = argIdx == dummyIdx ? -1 : normalized.locals().getOrDefault(slots[argIdx], -1);
+            }
+            var fingerprint = fingerprint(normalized, argumentTypes, ranks, dummyIdx, Type.getReturnType(original.desc));
+            var delegation = delegation(classNode, original, normalized, slots);
+
+            return new MethodShape(classNode.name, original.name, original.desc, dummyIdx, dummyValue, ranks, fingerprint, delegation);
+        } catch (AnalyzerException e) {
+            LOGGER.debug("Skipping {}.{}{}: {}", classNode.name, original.name, original.desc, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return the local slot of each argument of an instance method
+     */
+    private static int[] slots(Type[] argumentTypes) {
+        var slots = new int[argumentTypes.length];
+        var nextSlot = 1;
+
+        for (var argIdx = 0; argIdx < argumentTypes.length; argIdx++) {
+            slots[argIdx] = nextSlot;
+            nextSlot += argumentTypes[argIdx].getSize();
+        }
+        return slots;
+    }
+
+    /**
+     * The dummy is the only int-like parameter loaded only to be compared against constants, or the only unused
+     * int-like parameter when no parameter is compared.
+     *
+     * @return the dummy argument index or -1 if there's none
+     */
+    private static int findDummy(MethodNode methodNode, Type[] argumentTypes, int[] slots) {
+        var guarded = -1;
+        var unused = -1;
+
+        for (var argIdx = 0; argIdx < argumentTypes.length; argIdx++) {
+            var sort = argumentTypes[argIdx].getSort();
+
+            if (sort < Type.BOOLEAN || sort > Type.INT) {
+                continue;
+            }
+            var guards = 0;
+            var onlyGuards = true;
+
+            for (var insn : methodNode.instructions) {
+                if (insn instanceof VarInsnNode varInsn && varInsn.var == slots[argIdx]) {
+                    if (varInsn.getOpcode() != Opcodes.ILOAD || guardJump(varInsn) == null) {
+                        onlyGuards = false;
+                        break;
+                    }
+                    guards++;
+                } else if (insn instanceof IincInsnNode iincInsn && iincInsn.var == slots[argIdx]) {
+                    onlyGuards = false;
+                    break;
+                }
+            }
+
+            if (!onlyGuards) {
+                continue;
+            }
+
+            if (guards > 0) {
+                if (guarded != -1) {
+                    return -1;
+                }
+                guarded = argIdx;
+            } else {
+                unused = unused == -1 ? argIdx : -2;
+            }
+        }
+
+        if (guarded != -1) {
+            return guarded;
+        }
+        return unused >= 0 ? unused : -1;
+    }
+
+    /**
+     * @return the jump comparing the loaded value, alone or against a constant, or null if the load isn't a guard
+     */
+    private static JumpInsnNode guardJump(VarInsnNode load) {
+        var next = load.getNext();
+
+        if (next instanceof JumpInsnNode jumpInsn && isIf(jumpInsn.getOpcode())) {
+            return jumpInsn;
+        }
+        var constantBefore = ConstantFields.intConstant(load.getPrevious()) != null;
+        var constantAfter = ConstantFields.intConstant(next) != null;
+
+        if (constantAfter && next.getNext() instanceof JumpInsnNode jumpInsn && isIfCmp(jumpInsn.getOpcode())) {
+            return jumpInsn;
+        } else if (constantBefore && next instanceof JumpInsnNode jumpInsn && isIfCmp(jumpInsn.getOpcode())) {
+            return jumpInsn;
+        }
+        return null;
+    }
+
+    /**
+     * Folds the dummy guards into gotos, an obfuscator guard jumps over the code it protects.
+     *
+     * @return the first dummy value found taking a guard jump, or null if there's no guard
+     */
+    private static Integer foldGuards(MethodNode methodNode, int slot) {
+        var instructions = methodNode.instructions;
+        Integer value = null;
+
+        for (var insn : instructions.toArray()) {
+            if (!(insn instanceof VarInsnNode load) || load.var != slot || load.getOpcode() != Opcodes.ILOAD) {
+                continue;
+            }
+            var jumpInsn = guardJump(load);
+            var opcode = jumpInsn.getOpcode();
+            int guardValue;
+
+            if (isIf(opcode)) {
+                guardValue = valueTakingJump(opcode - Opcodes.IFEQ, 0);
+            } else if (jumpInsn.getPrevious() == load) {
+                var constantInsn = load.getPrevious();
+                guardValue = valueTakingJump(reverse(opcode - Opcodes.IF_ICMPEQ), ConstantFields.intConstant(constantInsn));
+                instructions.remove(constantInsn);
+            } else {
+                var constantInsn = load.getNext();
+                guardValue = valueTakingJump(opcode - Opcodes.IF_ICMPEQ, ConstantFields.intConstant(constantInsn));
+                instructions.remove(constantInsn);
+            }
+            value = value == null ? guardValue : value;
+
+            instructions.remove(load);
+            jumpInsn.setOpcode(Opcodes.GOTO);
+        }
+        return value;
+    }
+
+    /**
+     * @param condition the comparison, in the eq, ne, lt, ge, gt, le order of the if opcodes
+     * @return a value for which <code>value condition constant</code> holds
+     */
+    private static int valueTakingJump(int condition, int constant) {
+        return switch (condition) {
+            case 1, 4 -> constant + 1;
+            case 2 -> constant - 1;
+            default -> constant;
+        };
+    }
+
+    /**
+     * Swaps the operands of a comparison, <code>constant condition value</code> becomes <code>value condition' constant</code>.
+     */
+    private static int reverse(int condition) {
+        return switch (condition) {
+            case 2 -> 4;
+            case 3 -> 5;
+            case 4 -> 2;
+            case 5 -> 3;
+            default -> condition;
+        };
+    }
+
+    private static boolean isIf(int opcode) {
+        return opcode >= Opcodes.IFEQ && opcode <= Opcodes.IFLE;
+    }
+
+    private static boolean isIfCmp(int opcode) {
+        return opcode >= Opcodes.IF_ICMPEQ && opcode <= Opcodes.IF_ICMPLE;
+    }
+
+    private static Object dummyValue(Type type, int value) {
+        return switch (type.getSort()) {
+            case Type.BOOLEAN -> value != 0;
+            case Type.LONG -> (long) value;
+            default -> value;
+        };
+    }
+
+    /**
+     * Keeps the reachable instructions, numbering the locals in order of first use with 'this' first.
+     */
+    private Normalized normalize(MethodNode methodNode, Object[] frames) {
+        var instructions = new ArrayList<AbstractInsnNode>();
+        var positions = new HashMap<AbstractInsnNode, Integer>();
+        var locals = new HashMap<Integer, Integer>();
+        locals.put(0, 0);
+
+        for (var insn : methodNode.instructions) {
+            if (insn.getOpcode() == -1 || frames[methodNode.instructions.indexOf(insn)] == null) {
+                continue;
+            }
+            positions.put(insn, instructions.size());
+            instructions.add(insn);
+
+            if (insn instanceof VarInsnNode varInsn) {
+                locals.computeIfAbsent(varInsn.var, key -> locals.size());
+            } else if (insn instanceof IincInsnNode iincInsn) {
+                locals.computeIfAbsent(iincInsn.var, key -> locals.size());
+            }
+        }
+        return new Normalized(instructions, positions, locals);
+    }
+
+    private String fingerprint(Normalized normalized, Type[] argumentTypes, int[] ranks, int dummyIdx, Type returnType) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            var output = new DataOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(), digest));
+            output.writeUTF(returnType.getDescriptor());
+
+            // the parameter types in first use order, unused ones last
+            var argIdxs = new ArrayList<Integer>();
+
+            for (var argIdx = 0; argIdx < argumentTypes.length; argIdx++) {
+                if (argIdx != dummyIdx) {
+                    argIdxs.add(argIdx);
+                }
+            }
+            argIdxs.sort(Comparator.comparingInt(argIdx -> ranks[argIdx] == -1 ? Integer.MAX_VALUE : ranks[argIdx]));
+
+            for (var argIdx : argIdxs) {
+                output.writeUTF(argumentTypes[argIdx].getDescriptor());
+            }
+
+            for (var insn : normalized.instructions()) {
+                writeInsn(output, normalized, insn);
+            }
+            output.flush();
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void writeInsn(DataOutputStream output, Normalized normalized, AbstractInsnNode insn) throws IOException {
+        output.writeShort(insn.getOpcode());
+
+        if (insn instanceof VarInsnNode varInsn) {
+            output.writeShort(normalized.locals().get(varInsn.var));
+        } else if (insn instanceof IincInsnNode iincInsn) {
+            output.writeShort(normalized.locals().get(iincInsn.var));
+            output.writeInt(iincInsn.incr);
+        } else if (insn instanceof IntInsnNode intInsn) {
+            output.writeInt(intInsn.operand);
+        } else if (insn instanceof LdcInsnNode ldcInsn) {
+            output.writeUTF(ldcInsn.cst.getClass().getName() + ":" + ldcInsn.cst);
+        } else if (insn instanceof FieldInsnNode fieldInsn) {
+            output.writeUTF(fieldInsn.owner + "." + fieldInsn.name + ":" + fieldInsn.desc);
+        } else if (insn instanceof MethodInsnNode methodInsn) {
+            output.writeUTF(methodInsn.owner + "." + methodInsn.name + methodInsn.desc);
+        } else if (insn instanceof TypeInsnNode typeInsn) {
+            output.writeUTF(typeInsn.desc);
+        } else if (insn instanceof MultiANewArrayInsnNode arrayInsn) {
+            output.writeUTF(arrayInsn.desc);
+            output.writeByte(arrayInsn.dims);
+        } else if (insn instanceof InvokeDynamicInsnNode indyInsn) {
+            output.writeUTF(indyInsn.name + indyInsn.desc + indyInsn.bsm);
+        } else if (insn instanceof JumpInsnNode jumpInsn) {
+            output.writeInt(position(normalized, jumpInsn.label));
+        } else if (insn instanceof TableSwitchInsnNode switchInsn) {
+            output.writeInt(switchInsn.min);
+            output.writeInt(switchInsn.max);
+            output.writeInt(position(normalized, switchInsn.dflt));
+            for (var label : switchInsn.labels) {
+                output.writeInt(position(normalized, label));
+            }
+        } else if (insn instanceof LookupSwitchInsnNode switchInsn) {
+            output.writeInt(position(normalized, switchInsn.dflt));
+            for (var i = 0; i < switchInsn.keys.size(); i++) {
+                output.writeInt(switchInsn.keys.get(i));
+                output.writeInt(position(normalized, switchInsn.labels.get(i)));
+            }
+        }
+    }
+
+    /**
+     * The position of the first reachable instruction at or after the label.
+     */
+    private int position(Normalized normalized, LabelNode label) {
+        for (AbstractInsnNode insn = label; insn != null; insn = insn.getNext()) {
+            var position = normalized.positions().get(insn);
+
+            if (position != null) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Matches <code>aload 0, (argument load | int constant)*, invokevirtual owner.method, return</code>, the forward
+     * gotos left by the folded guards are skipped.
+     *
+     * @return the delegation or null if the method doesn't only call another method of its class
+     */
+    private Delegation delegation(ClassNode classNode, MethodNode methodNode, Normalized normalized, int[] slots) {
+        var instructions = new ArrayList<AbstractInsnNode>();
+
+        for (var insn : normalized.instructions()) {
+            if (insn.getOpcode() != Opcodes.GOTO) {
+                instructions.add(insn);
+            } else if (position(normalized, ((JumpInsnNode) insn).label) <= normalized.positions().get(insn)) {
+                return null;
+            }
+        }
+
+        if (instructions.size() < 3 || instructions.get(0).getOpcode() != Opcodes.ALOAD || ((VarInsnNode) instructions.get(0)).var != 0) {
+            return null;
+        }
+        var last = instructions.get(instructions.size() - 1);
+
+        if (last.getOpcode() < Opcodes.IRETURN || last.getOpcode() > Opcodes.RETURN
+                || !(instructions.get(instructions.size() - 2) instanceof MethodInsnNode call)
+                || call.getOpcode() != Opcodes.INVOKEVIRTUAL || !call.owner.equals(classNode.name)
+                || (call.name.equals(methodNode.name) && call.desc.equals(methodNode.desc))) {
+            return null;
+        }
+        var pushes = instructions.subList(1, instructions.size() - 2);
+
+        if (pushes.size() != Type.getArgumentTypes(call.desc).length) {
+            return null;
+        }
+        var sources = new int[pushes.size()];
+        var constants = new Integer[pushes.size()];
+
+        for (var argIdx = 0; argIdx < pushes.size(); argIdx++) {
+            var push = pushes.get(argIdx);
+            var constant = ConstantFields.intConstant(push);
+
+            if (constant != null) {
+                sources[argIdx] = DUMMY_ARGUMENT;
+                constants[argIdx] = constant;
+            } else if (push instanceof VarInsnNode load) {
+                var source = Arrays.binarySearch(slots, load.var);
+
+                if (source < 0) {
+                    return null;
+                }
+                sources[argIdx] = source;
+            } else {
+                return null;
+            }
+        }
+        return new Delegation(classNode.name + "." + call.name + call.desc, sources, constants);
+    }
+
+    /**
+     * Collects the constant dummies passed by the callers, only when the dummy is the last argument.
+     */
+    private Map<String, Integer> callSiteDummies(List<ClassNode> classNodes, Map<String, MethodShape> shapes) {
+        var counts = classNodes.parallelStream()
+                               .flatMap(classNode -> classNode.methods.stream())
+                               .flatMap(methodNode -> Arrays.stream(methodNode.instructions.toArray()))
+                               .filter(insn -> insn instanceof MethodInsnNode && insn.getOpcode() == Opcodes.INVOKEVIRTUAL)
+                               .map(insn -> (MethodInsnNode) insn)
+                               .filter(call -> {
+                                   var shape = shapes.get(call.owner + "." + call.name + call.desc);
+                                   return shape != null && shape.dummyIdx() == Type.getArgumentTypes(call.desc).length - 1
+                                           && ConstantFields.intConstant(call.getPrevious()) != null;
+                               })
+                               .collect(Collectors.groupingBy(call -> call.owner + "." + call.name + call.desc,
+                                       Collectors.groupingBy(call -> ConstantFields.intConstant(call.getPrevious()), Collectors.counting())));
+        var dummies = new HashMap<String, Integer>();
+
+        for (var entry : counts.entrySet()) {
+            var mostPassed = entry.getValue().entrySet().stream().max(Map.Entry.comparingByValue()).orElseThrow();
+            dummies.put(entry.getKey(), mostPassed.getKey());
+        }
+        return dummies;
+    }
+
+    private Map<String, List<MethodVariants>> group(Map<String, MethodShape> shapes, Map<String, Integer> callSiteDummies) {
+        // the delegating methods are variants of the method they call, whatever their own fingerprint is
+        var delegators = new HashMap<String, List<MethodShape>>();
+
+        for (var shape : shapes.values()) {
+            var delegation = shape.delegation();
+
+            if (delegation != null && isVariantDelegation(shape, shapes.get(delegation.callee()))) {
+                delegators.computeIfAbsent(delegation.callee(), key -> new ArrayList<>()).add(shape);
+            }
+        }
+        var isDelegator = delegators.values().stream().flatMap(List::stream).collect(Collectors.toSet());
+
+        var groups = shapes.values()
+                           .stream()
+                           .filter(shape -> !isDelegator.contains(shape))
+                           .collect(Collectors.groupingBy(shape -> shape.owner() + ":" + shape.fingerprint()));
+
+        var variants = new TreeMap<String, List<MethodVariants>>();
+
+        for (var group : groups.values()) {
+            var original = pickOriginal(group, delegators);
+            var originalDelegators = delegators.getOrDefault(original.key(), List.of());
+
+            if (group.size() == 1 && originalDelegators.isEmpty()) {
+                continue;
+            }
+            var originalInfo = new MethodInfo(original.name(), original.desc(), original.dummyIdx(), dummyValue(original, callSiteDummies, originalDelegators), null);
+            var variantInfos = new ArrayList<MethodInfo>();
+
+            for (var shape : group) {
+                if (shape != original) {
+                    addVariant(variantInfos, originalInfo, shape, sourcesByRank(original, shape));
+                }
+            }
+
+            for (var delegator : originalDelegators) {
+                addVariant(variantInfos, originalInfo, delegator, delegator.delegation().sources());
+            }
+
+            for (var shape : group) {
+                if (shape != original && delegators.containsKey(shape.key())) {
+                    LOGGER.warn("Skipping the variants of {}, they call a variant of {} instead of it", shape.key(), original.key());
+                }
+            }
+
+            if (variantInfos.isEmpty()) {
+                continue;
+            }
+            var name = mappings.getOrDefault(original.key(), original.name());
+            variants.computeIfAbsent(original.owner(), key -> new ArrayList<>()).add(new MethodVariants(name, originalInfo, variantInfos));
+            LOGGER.debug("{} has {} variants", original.key(), variantInfos.size());
+        }
+        variants.values().forEach(list -> list.sort(Comparator.comparing(methodVariants -> methodVariants.method().name() + methodVariants.method().desc())));
+        return variants;
+    }
+
+    /**
+     * A delegation is a variant when the constant goes to the callee dummy and the other arguments are the parameters,
+     * each passed once.
+     */
+    private boolean isVariantDelegation(MethodShape shape, MethodShape callee) {
+        if (callee == null) {
+            return false;
+        }
+        var sources = shape.delegation().sources();
+
+        if (Type.getArgumentTypes(shape.desc()).length != sources.length) {
+            return false;
+        }
+        var used = new boolean[sources.length];
+
+        for (var argIdx = 0; argIdx < sources.length; argIdx++) {
+            if ((sources[argIdx] == DUMMY_ARGUMENT) != (argIdx == callee.dummyIdx())) {
+                return false;
+            }
+
+            if (sources[argIdx] != DUMMY_ARGUMENT && (sources[argIdx] == shape.dummyIdx() || used[sources[argIdx]])) {
+                return false;
+            }
+
+            if (sources[argIdx] != DUMMY_ARGUMENT) {
+                used[sources[argIdx]] = true;
+            }
+        }
+        return Type.getReturnType(shape.desc()).equals(Type.getReturnType(callee.desc()));
+    }
+
+    /**
+     * The original is the mapped method, else the one called by delegating variants, else the first by name.
+     */
+    private MethodShape pickOriginal(List<MethodShape> group, Map<String, List<MethodShape>> delegators) {
+        return group.stream()
+                    .min(Comparator.<MethodShape, Boolean>comparing(shape -> !mappings.containsKey(shape.key()))
+                                   .thenComparing(shape -> !delegators.containsKey(shape.key()))
+                                   .thenComparing(MethodShape::key))
+                    .orElseThrow();
+    }
+
+    private Object dummyValue(MethodShape original, Map<String, Integer> callSiteDummies, List<MethodShape> delegators) {
+        var dummyType = Type.getArgumentTypes(original.desc())[original.dummyIdx()];
+        var passed = callSiteDummies.get(original.key());
+
+        if (passed == null) {
+            passed = delegators.stream()
+                               .map(delegator -> delegator.delegation().constants()[original.dummyIdx()])
+                               .findFirst()
+                               .orElse(null);
+        }
+
+        if (passed != null) {
+            return dummyValue(dummyType, passed);
+        }
+        // a dummy never compared nor passed as a constant can take any value, the variant mappers still need one
+        return original.dummyValue() != null ? original.dummyValue() : dummyValue(dummyType, 0);
+    }
+
+    /**
+     * Pairs the original arguments with the variant arguments first used at the same position.
+     *
+     * @return the argument sources or null if the arguments can't be paired
+     */
+    private int[] sourcesByRank(MethodShape original, MethodShape variant) {
+        var originalTypes = Type.getArgumentTypes(original.desc());
+        var variantTypes = Type.getArgumentTypes(variant.desc());
+
+        if (originalTypes.length != variantTypes.length) {
+            return null;
+        }
+        var sources = new int[originalTypes.length];
+        var paired = new boolean[variantTypes.length];
+
+        for (var argIdx = 0; argIdx < originalTypes.length; argIdx++) {
+            if (argIdx == original.dummyIdx()) {
+                sources[argIdx] = DUMMY_ARGUMENT;
+                continue;
+            }
+            sources[argIdx] = -2;
+
+            for (var variantArgIdx = 0; variantArgIdx < variantTypes.length; variantArgIdx++) {
+                if (variantArgIdx != variant.dummyIdx() && !paired[variantArgIdx] && variant.ranks()[variantArgIdx] == original.ranks()[argIdx]
+                        && variantTypes[variantArgIdx].equals(originalTypes[argIdx])) {
+                    sources[argIdx] = variantArgIdx;
+                    paired[variantArgIdx] = true;
+                    break;
+                }
+            }
+
+            if (sources[argIdx] == -2) {
+                return null;
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Adds the variant, with an argument mapping only when {@link PacketVariantMapper} can't deduce the same one.
+     */
+    private void addVariant(List<MethodInfo> variantInfos, MethodInfo original, MethodShape variant, int[] sources) {
+        if (sources == null) {
+            LOGGER.warn("Can't pair the arguments of {} with {}.{}{}", variant.key(), variant.owner(), original.name(), original.desc());
+            return;
+        }
+        var deduced = PacketVariantMapper.argumentSources(original, new MethodInfo(variant.name(), variant.desc(), variant.dummyIdx(), null, null));
+        var argMapping = Arrays.equals(deduced, sources) ? null : sources;
+
+        variantInfos.add(new MethodInfo(variant.name(), variant.desc(), variant.dummyIdx(), null, argMapping));
+    }
+
+    /**
+     * @param dummyValue the dummy value deduced from the guards, null without guards
+     * @param ranks      the first use position of each parameter in the normalized method, -1 if unused or the dummy
+     */
+    private record MethodShape(String owner, String name, String desc, int dummyIdx, Object dummyValue, int[] ranks,
+                               String fingerprint, Delegation delegation) {
+
+        String key() {
+            return owner + "." + name + desc;
+        }
+    }
+
+    /**
+     * @param sources   the parameter passed as each argument of the callee, {@link PacketVariantMapper#DUMMY_ARGUMENT} for a constant
+     * @param constants the constant passed as each argument of the callee, null for a parameter
+     */
+    private record Delegation(String callee, int[] sources, Integer[] constants) {
+
+    }
+
+    private record Normalized(List<AbstractInsnNode> instructions, Map<AbstractInsnNode, Integer> positions, Map<Integer, Integer> locals) {
+
+    }
+}
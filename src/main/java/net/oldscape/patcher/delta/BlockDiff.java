@@ -0,0 +1,154 @@
+package net.oldscape.patcher.delta;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * rsync style block diff between two byte arrays. <br/>
+ * The source is split in fixed size blocks indexed by a rolling checksum, the target is then scanned one byte at a time
+ * looking for blocks of the source, matches are extended as far as possible and encoded as copies, everything else
+ * is encoded as literal bytes.
+ */
+final class BlockDiff {
+
+    static final int BLOCK_SIZE = 32;
+
+    private static final int OP_END = 0;
+    private static final int OP_COPY = 1;
+    private static final int OP_LITERAL = 2;
+
+    private BlockDiff() {
+    }
+
+    static void encode(byte[] source, byte[] target, DataOutputStream output) throws IOException {
+        var blocks = indexBlocks(source);
+        var literal = new ByteArrayOutputStream();
+        var position = 0;
+        var checksum = new RollingChecksum();
+
+        if (target.length >= BLOCK_SIZE) {
+            checksum.reset(target, 0);
+        }
+
+        while (position < target.length) {
+            var match = position + BLOCK_SIZE <= target.length ? findMatch(source, target, position, blocks.get(checksum.value())) : -1;
+
+            if (match == -1) {
+                literal.write(target[position]);
+
+                if (position + BLOCK_SIZE < target.length) {
+                    checksum.roll(target[position], target[position + BLOCK_SIZE]);
+                }
+                position++;
+                continue;
+            }
+            var length = BLOCK_SIZE;
+
+            while (match + length < source.length && position + length < target.length && source[match + length] == target[position + length]) {
+                length++;
+            }
+            flushLiteral(literal, output);
+
+            output.writeByte(OP_COPY);
+            output.writeInt(match);
+            output.writeInt(length);
+            position += length;
+
+            if (position + BLOCK_SIZE <= target.length) {
+                checksum.reset(target, position);
+            }
+        }
+        flushLiteral(literal, output);
+        output.writeByte(OP_END);
+    }
+
+    static byte[] decode(byte[] source, DataInputStream input) throws IOException {
+        var output = new ByteArrayOutputStream(source.length);
+
+        while (true) {
+            var op = input.readUnsignedByte();
+
+            switch (op) {
+                case OP_END -> {
+                    return output.toByteArray();
+                }
+                case OP_COPY -> {
+                    var offset = input.readInt();
+                    var length = input.readInt();
+                    output.write(source, offset, length);
+                }
+                case OP_LITERAL -> output.write(input.readNBytes(input.readInt()));
+                default -> throw new IOException("Unknown block op " + op);
+            }
+        }
+    }
+
+    private static Map<Integer, List<Integer>> indexBlocks(byte[] source) {
+        var blocks = new HashMap<Integer, List<Integer>>();
+        var checksum = new RollingChecksum();
+
+        for (var offset = 0; offset + BLOCK_SIZE <= source.length; offset += BLOCK_SIZE) {
+            checksum.reset(source, offset);
+            blocks.computeIfAbsent(checksum.value(), key -> new ArrayList<>()).add(offset);
+        }
+        return blocks;
+    }
+
+    private static int findMatch(byte[] source, byte[] target, int position, List<Integer> candidates) {
+        if (candidates == null) {
+            return -1;
+        }
+
+        for (var offset : candidates) {
+            if (Arrays.equals(source, offset, offset + BLOCK_SIZE, target, position, position + BLOCK_SIZE)) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    private static void flushLiteral(ByteArrayOutputStream literal, DataOutputStream output) throws IOException {
+        if (literal.size() == 0) {
+            return;
+        }
+        output.writeByte(OP_LITERAL);
+        output.writeInt(literal.size());
+        literal.writeTo(output);
+        literal.reset();
+    }
+
+    /**
+     * Adler-32 like checksum over a window of {@link #BLOCK_SIZE} bytes that can be moved one byte at a time.
+     */
+    private static final class RollingChecksum {
+
+        private int a;
+        private int b;
+
+        void reset(byte[] data, int offset) {
+            a = 0;
+            b = 0;
+
+            for (var i = 0; i < BLOCK_SIZE; i++) {
+                a += data[offset + i] & 0xFF;
+                b += a;
+            }
+        }
+
+        void roll(byte removed, byte added) {
+            a += (added & 0xFF) - (removed & 0xFF);
+            b += a - BLOCK_SIZE * (removed & 0xFF);
+        }
+
+        int value() {
+            return (b << 16) ^ a;
+        }
+    }
+}
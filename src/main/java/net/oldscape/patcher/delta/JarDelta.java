@@ -0,0 +1,249 @@
+package net.oldscape.patcher.delta;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Delta between the unpatched client and a patched jar, the delta file layout is (gzipped): <br/>
+ * <pre>
+ * int     magic
+ * byte    version
+ * byte[32] sha256 of the source jar
+ * byte[32] sha256 of the target jar
+ * int     entry count
+ * entries:
+ *   byte     op (copy, add or patch)
+ *   utf      target entry name
+ *   long     entry local time (epoch seconds at utc)
+ *   byte[32] sha256 of the entry contents
+ *   copy:  utf source entry name
+ *   add:   int length, bytes
+ *   patch: utf source entry name, block ops (see {@link BlockDiff})
+ * int     removed entry count
+ * utf[]   removed source entry names
+ * </pre>
+ * The target jar is rebuilt entry by entry in the same order with the same entry times, so that the rebuilt jar
+ * matches the original byte for byte.
+ */
+public final class JarDelta {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JarDelta.class);
+
+    private static final int MAGIC = 0x4F534A44;
+    private static final int VERSION = 1;
+
+    private static final int OP_COPY = 0;
+    private static final int OP_ADD = 1;
+    private static final int OP_PATCH = 2;
+
+    private JarDelta() {
+    }
+
+    /**
+     * Writes the delta that turns the source jar into the target jar.
+     *
+     * @param renamedEntries target entry names mapped to the source entry they were produced from, for entries whose
+     *                       name changed when patching
+     */
+    public static void create(Path source, Path target, Path delta, Map<String, String> renamedEntries) throws IOException {
+        var removed = new HashSet<String>();
+        var stats = new int[3];
+
+        try (var sourceJar = new JarFile(source.toFile());
+             var targetJar = new JarFile(target.toFile());
+             var output = new DataOutputStream(new GZIPOutputStream(Files.newOutputStream(delta, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)))) {
+            sourceJar.stream().map(JarEntry::getName).forEach(removed::add);
+            var targetEntries = targetJar.stream().toList();
+
+            output.writeInt(MAGIC);
+            output.writeByte(VERSION);
+            output.write(sha256(source));
+            output.write(sha256(target));
+            output.writeInt(targetEntries.size());
+
+            for (var entry : targetEntries) {
+                var contents = readEntry(targetJar, entry);
+                var sourceName = renamedEntries.getOrDefault(entry.getName(), entry.getName());
+                var sourceEntry = sourceJar.getJarEntry(sourceName);
+                var sourceContents = sourceEntry == null ? null : readEntry(sourceJar, sourceEntry);
+                int op;
+
+                if (sourceContents == null) {
+                    op = OP_ADD;
+                } else if (Arrays.equals(sourceContents, contents)) {
+                    op = OP_COPY;
+                } else {
+                    op = OP_PATCH;
+                }
+                stats[op]++;
+                removed.remove(sourceName);
+
+                output.writeByte(op);
+                output.writeUTF(entry.getName());
+                output.writeLong(entry.getTimeLocal().toEpochSecond(ZoneOffset.UTC));
+                output.write(sha256(contents));
+
+                switch (op) {
+                    case OP_COPY -> output.writeUTF(sourceName);
+                    case OP_ADD -> {
+                        output.writeInt(contents.length);
+                        output.write(contents);
+                    }
+                    case OP_PATCH -> {
+                        output.writeUTF(sourceName);
+                        BlockDiff.encode(sourceContents, contents, output);
+                    }
+                }
+            }
+            output.writeInt(removed.size());
+
+            for (var name : removed) {
+                output.writeUTF(name);
+            }
+        }
+        LOGGER.info("Wrote delta {} ({} bytes): {} unchanged, {} added, {} patched and {} removed entries",
+                delta, Files.size(delta), stats[OP_COPY], stats[OP_ADD], stats[OP_PATCH], removed.size());
+    }
+
+    /**
+     * Rebuilds the target jar from the source jar and a delta, verifying the source jar, every rebuilt entry and
+     * finally the rebuilt jar against the hashes recorded in the delta. A rebuilt jar failing verification is deleted.
+     */
+    public static void apply(Path source, Path delta, Path target) throws IOException {
+        try (var input = new DataInputStream(new GZIPInputStream(Files.newInputStream(delta)));
+             var sourceJar = new JarFile(source.toFile())) {
+            if (input.readInt() != MAGIC) {
+                throw new IOException(delta + " is not a jar delta");
+            }
+            var version = input.readUnsignedByte();
+
+            if (version != VERSION) {
+                throw new IOException("Unsupported jar delta version " + version);
+            }
+            var sourceHash = input.readNBytes(32);
+            var targetHash = input.readNBytes(32);
+
+            if (!Arrays.equals(sourceHash, sha256(source))) {
+                throw new IOException("Source jar does not match the delta, expected sha256 " + HexFormat.of().formatHex(sourceHash));
+            }
+            var entryCount = input.readInt();
+            var verified = false;
+
+            try {
+                rebuild(input, sourceJar, target, entryCount);
+
+                if (!Arrays.equals(targetHash, sha256(target))) {
+                    throw new IOException("Rebuilt jar does not match the expected sha256 " + HexFormat.of().formatHex(targetHash));
+                }
+                verified = true;
+            } finally {
+                // never leave a jar that failed verification behind
+                if (!verified) {
+                    Files.deleteIfExists(target);
+                }
+            }
+            LOGGER.info("Rebuilt {} from {} entries, sha256 verified", target, entryCount);
+        }
+    }
+
+    private static void rebuild(DataInputStream input, JarFile sourceJar, Path target, int entryCount) throws IOException {
+        try (var output = new JarOutputStream(Files.newOutputStream(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))) {
+            for (var i = 0; i < entryCount; i++) {
+                var op = input.readUnsignedByte();
+                var name = input.readUTF();
+                var time = LocalDateTime.ofEpochSecond(input.readLong(), 0, ZoneOffset.UTC);
+                var hash = input.readNBytes(32);
+
+                var contents = switch (op) {
+                    case OP_COPY -> readEntry(sourceJar, input.readUTF());
+                    case OP_ADD -> input.readNBytes(input.readInt());
+                    case OP_PATCH -> BlockDiff.decode(readEntry(sourceJar, input.readUTF()), input);
+                    default -> throw new IOException("Unknown entry op " + op);
+                };
+
+                if (!Arrays.equals(hash, sha256(contents))) {
+                    throw new IOException("Hash mismatch for rebuilt entry " + name);
+                }
+                var entry = new JarEntry(name);
+                entry.setTimeLocal(time);
+
+                output.putNextEntry(entry);
+                output.write(contents);
+                output.closeEntry();
+            }
+        }
+        var removed = new ArrayList<String>();
+        var removedCount = input.readInt();
+
+        for (var i = 0; i < removedCount; i++) {
+            removed.add(input.readUTF());
+        }
+        LOGGER.debug("Entries removed from the source jar: {}", removed);
+    }
+
+    private static byte[] readEntry(JarFile jarFile, String name) throws IOException {
+        var entry = jarFile.getJarEntry(name);
+
+        if (entry == null) {
+            throw new IOException("Source jar is missing entry " + name);
+        }
+        return readEntry(jarFile, entry);
+    }
+
+    private static byte[] readEntry(JarFile jarFile, JarEntry entry) throws IOException {
+        try (var stream = jarFile.getInputStream(entry)) {
+            return stream.readAllBytes();
+        }
+    }
+
+    private static byte[] sha256(Path path) throws IOException {
+        try (var stream = Files.newInputStream(path)) {
+            return sha256(stream);
+        }
+    }
+
+    private static byte[] sha256(InputStream stream) throws IOException {
+        var digest = newDigest();
+        var buffer = new byte[8192];
+        int read;
+
+        while ((read = stream.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return digest.digest();
+    }
+
+    private static byte[] sha256(byte[] contents) {
+        return newDigest().digest(contents);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available on this platform", e);
+        }
+    }
+}
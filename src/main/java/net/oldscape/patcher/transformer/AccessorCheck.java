@@ -0,0 +1,259 @@
+package net.oldscape.patcher.transformer;
+
+import net.oldscape.patcher.transformer.PacketVarHandles.Fields;
+import net.oldscape.patcher.transformer.PacketVarHandles.Rewrite;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks that the methods rewritten by {@link PacketVarHandles} behave like the originals. The jar is loaded twice,
+ * by class loaders only sharing the platform classes, once with the original Packet class and once with the rewritten
+ * one. Both methods are then called on the same inputs: <br/>
+ * - <code>data</code> being null, or arrays from empty to a few bytes larger than the access;<br/>
+ * - <code>pos</code> going from one before the array to one past it, and close to {@link Integer#MAX_VALUE};<br/>
+ * - Edge and random values for the writes, and a few dummy values when the right one isn't known.<br/>
+ * The return value or exception class, <code>pos</code> and the content of <code>data</code> must match. The
+ * instances are allocated without running a constructor, only the two buffer fields are set, and the static
+ * initializers of the client classes are left out so no other client code runs. A check that can't complete keeps the original methods.
+ */
+final class AccessorCheck {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccessorCheck.class);
+
+    private static final long SEED = 0x5eed;
+    private static final int MAX_EXTRA_BYTES = 3;
+    private static final int[] UNKNOWN_DUMMIES = {0, 1, -1, 91};
+
+    private final Map<String, ClassNode> classNodes;
+    private final ClassNode original;
+    private final Fields fields;
+
+    private AccessorCheck(Map<String, ClassNode> classNodes, ClassNode original, Fields fields) {
+        this.classNodes = classNodes;
+        this.original = original;
+        this.fields = fields;
+    }
+
+    static AccessorCheck create(Map<String, ClassNode> classNodes, ClassNode original, Fields fields) {
+        return new AccessorCheck(classNodes, original, fields);
+    }
+
+    /**
+     * @return the rewrites behaving differently from the original, all of them if they couldn't be checked
+     */
+    List<Rewrite> check(List<Rewrite> rewrites) {
+        Subject expected;
+        Subject actual;
+
+        try {
+            expected = Subject.load(new IsolatedClassLoader(classNodes, original), fields);
+            actual = Subject.load(new IsolatedClassLoader(classNodes, null), fields);
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            LOGGER.warn("Couldn't load the Packet class to check the VarHandle rewrites, keeping the original methods", e);
+            return rewrites;
+        }
+        var failed = new ArrayList<Rewrite>();
+
+        for (var rewrite : rewrites) {
+            try {
+                var cases = check(rewrite, expected, actual);
+
+                if (cases == -1) {
+                    failed.add(rewrite);
+                } else {
+                    LOGGER.debug("{} matches the original on {} inputs", rewrite.accessor().mappedName, cases);
+                }
+            } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+                LOGGER.warn("Couldn't check the {} rewrite, keeping the original method", rewrite.accessor().mappedName, e);
+                failed.add(rewrite);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * @return the number of inputs checked or -1 if an outcome differed
+     */
+    private int check(Rewrite rewrite, Subject expected, Subject actual) throws ReflectiveOperationException {
+        var accessor = rewrite.accessor();
+        var argumentTypes = Type.getArgumentTypes(rewrite.desc());
+        var random = new Random(SEED);
+        var cases = 0;
+
+        for (var length = -1; length <= accessor.width() + MAX_EXTRA_BYTES; length++) {
+            var data = length == -1 ? null : new byte[length];
+
+            if (data != null) {
+                random.nextBytes(data);
+            }
+
+            for (var pos : positions(length)) {
+                for (var dummy : dummies(rewrite)) {
+                    var arguments = new Object[argumentTypes.length];
+                    arguments[rewrite.dummyIdx()] = box(argumentTypes[rewrite.dummyIdx()], dummy);
+
+                    if (accessor.write) {
+                        arguments[1 - rewrite.dummyIdx()] = value(accessor.type, random, cases);
+                    }
+                    var expectedOutcome = expected.call(rewrite.name(), rewrite.desc(), data, pos, arguments);
+                    var actualOutcome = actual.call(rewrite.name(), rewrite.desc(), data, pos, arguments);
+                    cases++;
+
+                    if (!expectedOutcome.equals(actualOutcome)) {
+                        LOGGER.warn("{} differs from the original with data={}, pos={} and arguments {}: expected {} but got {}, keeping the original method",
+                                accessor.mappedName, data == null ? null : HexFormat.of().formatHex(data), pos, List.of(arguments), expectedOutcome, actualOutcome);
+                        return -1;
+                    }
+                }
+            }
+        }
+        return cases;
+    }
+
+    private static List<Integer> positions(int length) {
+        var positions = new ArrayList<Integer>();
+
+        for (var pos = -1; pos <= Math.max(length, 0) + 1; pos++) {
+            positions.add(pos);
+        }
+        positions.add(Integer.MAX_VALUE - 1);
+        return positions;
+    }
+
+    private static int[] dummies(Rewrite rewrite) {
+        var dummyValue = rewrite.dummyValue();
+
+        if (dummyValue instanceof Boolean bool) {
+            return new int[]{bool ? 1 : 0};
+        } else if (dummyValue instanceof Integer integer) {
+            return new int[]{integer};
+        }
+        return UNKNOWN_DUMMIES;
+    }
+
+    private static Object value(Type type, Random random, int index) {
+        // alternates between the edges and random values
+        long[] edges = {0, -1, 1, Integer.MIN_VALUE, Integer.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE};
+        var slot = index % (edges.length * 2);
+        var value = slot < edges.length ? edges[slot] : random.nextLong();
+        return type.getSort() == Type.LONG ? (Object) value : (Object) (int) value;
+    }
+
+    private static Object box(Type type, int value) {
+        return switch (type.getSort()) {
+            case Type.BOOLEAN -> value != 0;
+            case Type.BYTE -> (byte) value;
+            case Type.CHAR -> (char) value;
+            case Type.SHORT -> (short) value;
+            default -> value;
+        };
+    }
+
+    /**
+     * @param result    the value returned, or null when void or an exception was thrown
+     * @param exception the class of the exception thrown or null
+     */
+    private record Outcome(Object result, String exception, int pos, String data) {
+
+    }
+
+    /**
+     * The Packet class as loaded by one of the class loaders.
+     */
+    private record Subject(Class<?> packet, Object unsafe, Method allocateInstance, Field data, Field pos) {
+
+        static Subject load(ClassLoader loader, Fields fields) throws ReflectiveOperationException {
+            var packet = Class.forName(fields.owner().replace('/', '.'), true, loader);
+            var unsafeClass = Class.forName("sun.misc.Unsafe");
+            var theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+
+            var data = packet.getDeclaredField(fields.data());
+            var pos = packet.getDeclaredField(fields.pos());
+            data.setAccessible(true);
+            pos.setAccessible(true);
+            return new Subject(packet, theUnsafe.get(null), unsafeClass.getMethod("allocateInstance", Class.class), data, pos);
+        }
+
+        Outcome call(String name, String desc, byte[] data, int pos, Object[] arguments) throws ReflectiveOperationException {
+            var buffer = data == null ? null : data.clone();
+            var instance = allocateInstance.invoke(unsafe, packet);
+            this.data.set(instance, buffer);
+            this.pos.set(instance, pos);
+
+            var parameterTypes = MethodType.fromMethodDescriptorString(desc, packet.getClassLoader()).parameterArray();
+            var method = packet.getDeclaredMethod(name, parameterTypes);
+            method.setAccessible(true);
+
+            Object result = null;
+            String exception = null;
+
+            try {
+                result = method.invoke(instance, arguments);
+            } catch (InvocationTargetException e) {
+                exception = e.getCause().getClass().getName();
+            }
+            var bufferAfter = (byte[]) this.data.get(instance);
+            return new Outcome(result, exception, this.pos.getInt(instance),
+                    bufferAfter == null ? null : HexFormat.of().formatHex(bufferAfter) + (bufferAfter == buffer ? "" : " (replaced)"));
+        }
+    }
+
+    /**
+     * Defines the classes of the jar from their current trees, the Packet class being optionally replaced. Only the
+     * generated {@link BigEndianGenerator} class keeps its static initializer, creating the VarHandles.
+     */
+    private static final class IsolatedClassLoader extends ClassLoader {
+
+        private final Map<String, ClassNode> classNodes;
+        private final ClassNode packet;
+
+        private IsolatedClassLoader(Map<String, ClassNode> classNodes, ClassNode packet) {
+            super(ClassLoader.getPlatformClassLoader());
+            this.classNodes = classNodes;
+            this.packet = packet;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            var internalName = name.replace('.', '/');
+            var classNode = packet != null && packet.name.equals(internalName) ? packet : classNodes.get(internalName);
+
+            if (classNode == null) {
+                throw new ClassNotFoundException(name);
+            }
+            var writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+            var keepClinit = classNode.name.equals(BigEndianGenerator.BIG_ENDIAN);
+
+            classNode.accept(new ClassVisitor(Opcodes.ASM9, writer) {
+
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                    if (name.equals("<clinit>") && !keepClinit) {
+                        return null;
+                    }
+                    return super.visitMethod(access, name, descriptor, signature, exceptions);
+                }
+            });
+
+            var bytes = writer.toByteArray();
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package net.oldscape.patcher.transformer;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.GeneratorAdapter;
+import org.objectweb.asm.commons.Method;
+import org.objectweb.asm.tree.ClassNode;
+
+/**
+ * Generates the runtime support class of {@link PacketVarHandles}, equivalent to: <br/>
+ * <pre>
+ * public final class BigEndian {
+ *     private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+ *     private static final VarHandle INT = ...;
+ *     private static final VarHandle LONG = ...;
+ *
+ *     public static int getUnsignedShort(byte[] data, int pos) { return (short) SHORT.get(data, pos) &amp; 0xffff; }
+ *     public static void putShort(byte[] data, int pos, int value) { SHORT.set(data, pos, (short) value); }
+ *     ... // getInt, putInt, getLong and putLong
+ * }
+ * </pre>
+ * {@link java.lang.invoke.VarHandle} calls are signature polymorphic, which the Java 5 client classes can't make, so
+ * the class is generated for Java 9 instead. None of its methods branch so it still doesn't need stack map frames.
+ */
+final class BigEndianGenerator {
+
+    static final String BIG_ENDIAN = "net/oldscape/packet/BigEndian";
+
+    private static final Type BIG_ENDIAN_TYPE = Type.getObjectType(BIG_ENDIAN);
+    private static final Type VAR_HANDLE_TYPE = Type.getObjectType("java/lang/invoke/VarHandle");
+    private static final Type BYTE_ORDER_TYPE = Type.getObjectType("java/nio/ByteOrder");
+
+    private BigEndianGenerator() {
+    }
+
+    static ClassNode generate() {
+        var writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V9, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, BIG_ENDIAN, null, "java/lang/Object", null);
+
+        for (var view : View.values()) {
+            writer.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, view.name(), VAR_HANDLE_TYPE.getDescriptor(), null, null).visitEnd();
+        }
+        generateClinit(writer);
+
+        for (var accessor : Accessor.values()) {
+            generateAccessor(writer, accessor);
+        }
+        writer.visitEnd();
+        return toClassNode(writer);
+    }
+
+    private static void generateClinit(ClassWriter writer) {
+        var method = new GeneratorAdapter(Opcodes.ACC_STATIC, Method.getMethod("void <clinit> ()"), null, null, writer);
+
+        for (var view : View.values()) {
+            method.push(Type.getType("[" + view.type.getDescriptor()));
+            method.getStatic(BYTE_ORDER_TYPE, "BIG_ENDIAN", BYTE_ORDER_TYPE);
+            method.invokeStatic(Type.getObjectType("java/lang/invoke/MethodHandles"),
+                    Method.getMethod("java.lang.invoke.VarHandle byteArrayViewVarHandle (Class, java.nio.ByteOrder)"));
+            method.putStatic(BIG_ENDIAN_TYPE, view.name(), VAR_HANDLE_TYPE);
+        }
+        method.returnValue();
+        method.endMethod();
+    }
+
+    private static void generateAccessor(ClassWriter writer, Accessor accessor) {
+        var method = new GeneratorAdapter(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, new Method(accessor.helper, accessor.helperDesc()), null, null, writer);
+        var view = accessor.view;
+        var viewType = view.type.getDescriptor();
+
+        method.getStatic(BIG_ENDIAN_TYPE, view.name(), VAR_HANDLE_TYPE);
+        method.loadArg(0);
+        method.loadArg(1);
+
+        if (accessor.write) {
+            method.loadArg(2);
+            method.cast(accessor.type, view.type);
+            method.invokeVirtual(VAR_HANDLE_TYPE, new Method("set", "([BI" + viewType + ")V"));
+        } else {
+            method.invokeVirtual(VAR_HANDLE_TYPE, new Method("get", "([BI)" + viewType));
+
+            if (view == View.SHORT) {
+                method.push(0xffff);
+                method.math(GeneratorAdapter.AND, Type.INT_TYPE);
+            }
+        }
+        method.returnValue();
+        method.endMethod();
+    }
+
+    private static ClassNode toClassNode(ClassWriter writer) {
+        var classNode = new ClassNode();
+        new ClassReader(writer.toByteArray()).accept(classNode, 0);
+        return classNode;
+    }
+
+    private enum View {
+        SHORT(Type.SHORT_TYPE, Short.BYTES),
+        INT(Type.INT_TYPE, Integer.BYTES),
+        LONG(Type.LONG_TYPE, Long.BYTES);
+
+        private final Type type;
+        private final int width;
+
+        View(Type type, int width) {
+            this.type = type;
+            this.width = width;
+        }
+    }
+
+    /**
+     * The Packet methods rewritten by {@link PacketVarHandles}, keyed by their mapped name.
+     */
+    enum Accessor {
+        G2("g2", View.SHORT, Type.INT_TYPE, false, "getUnsignedShort"),
+        G4("g4", View.INT, Type.INT_TYPE, false, "getInt"),
+        G8("g8", View.LONG, Type.LONG_TYPE, false, "getLong"),
+        P2("p2", View.SHORT, Type.INT_TYPE, true, "putShort"),
+        P4("p4", View.INT, Type.INT_TYPE, true, "putInt"),
+        P8("p8", View.LONG, Type.LONG_TYPE, true, "putLong");
+
+        final String mappedName;
+        final View view;
+        /**
+         * The type returned by a read or taken by a write.
+         */
+        final Type type;
+        final boolean write;
+        final String helper;
+
+        Accessor(String mappedName, View view, Type type, boolean write, String helper) {
+            this.mappedName = mappedName;
+            this.view = view;
+            this.type = type;
+            this.write = write;
+            this.helper = helper;
+        }
+
+        int width() {
+            return view.width;
+        }
+
+        String helperDesc() {
+            return write ? "([BI" + type.getDescriptor() + ")V" : "([BI)" + type.getDescriptor();
+        }
+    }
+}
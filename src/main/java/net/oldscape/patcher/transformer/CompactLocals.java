@@ -0,0 +1,318 @@
+package net.oldscape.patcher.transformer;
+
+import net.oldscape.patcher.ClassTransformer;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.BasicInterpreter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renumbers the local variables to close the gaps left by the cleanup transformers, like the dummy math stores
+ * {@link RemoveUnusedMath} deletes or the opaque predicate local {@link RemoveImpossibleJumps} removes. <br/>
+ * Each slot is split by the type stored in it, so a slot reused for an int and then a reference is two variables.
+ * A liveness analysis over the control flow, exception edges included, finds the variables that are live at the same
+ * time, then the variables are packed into the lowest slots they can share with the variables they don't interfere
+ * with, longs and doubles taking two slots. The arguments keep their slots. <br/>
+ * The methods using <code>jsr</code>/<code>ret</code> are skipped, as are the ones the compaction wouldn't shrink.
+ */
+public class CompactLocals implements ClassTransformer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompactLocals.class);
+
+    private int compactedMethods;
+    private int savedSlots;
+
+    @Override
+    public void finish() {
+        LOGGER.info("Compacted the locals of {} methods, saving {} slots", compactedMethods, savedSlots);
+    }
+
+    @Override
+    public void transform(ClassNode classNode) {
+        for (var methodNode : classNode.methods) {
+            if (methodNode.instructions.size() == 0 || usesSubroutines(methodNode)) {
+                continue;
+            }
+
+            try {
+                compact(classNode.name, methodNode);
+            } catch (AnalyzerException e) {
+                LOGGER.warn("Could not analyze {}.{}{}: {}", classNode.name, methodNode.name, methodNode.desc, e.getMessage());
+            }
+        }
+    }
+
+    private void compact(String owner, MethodNode methodNode) throws AnalyzerException {
+        var instructions = methodNode.instructions;
+        var variables = new Variables();
+
+        var argumentSlots = variables.addArguments(methodNode);
+        var uses = new int[instructions.size()];
+        var defs = new int[instructions.size()];
+        Arrays.fill(uses, -1);
+        Arrays.fill(defs, -1);
+
+        for (var i = 0; i < instructions.size(); i++) {
+            var insn = instructions.get(i);
+
+            if (insn instanceof VarInsnNode varInsn) {
+                var variable = variables.of(varInsn.var, varInsn.getOpcode());
+
+                if (varInsn.getOpcode() >= Opcodes.ISTORE) {
+                    defs[i] = variable;
+                } else {
+                    uses[i] = variable;
+                }
+            } else if (insn instanceof IincInsnNode iincInsn) {
+                uses[i] = defs[i] = variables.of(iincInsn.var, Opcodes.ILOAD);
+            }
+        }
+        var before = Math.max(argumentSlots, variables.slotsUsed());
+        var slots = allocate(variables, interference(owner, methodNode, variables, uses, defs));
+        var after = 0;
+
+        for (var variable = 0; variable < variables.size(); variable++) {
+            after = Math.max(after, slots[variable] + variables.size(variable));
+        }
+        after = Math.max(argumentSlots, after);
+
+        if (after >= before) {
+            return;
+        }
+
+        for (var i = 0; i < instructions.size(); i++) {
+            var insn = instructions.get(i);
+            var variable = defs[i] != -1 ? defs[i] : uses[i];
+
+            if (insn instanceof VarInsnNode varInsn) {
+                varInsn.var = slots[variable];
+            } else if (insn instanceof IincInsnNode iincInsn) {
+                iincInsn.var = slots[variable];
+            }
+        }
+        methodNode.maxLocals = after;
+        compactedMethods++;
+        savedSlots += before - after;
+        LOGGER.debug("Compacted {}.{}{} from {} to {} locals", owner, methodNode.name, methodNode.desc, before, after);
+    }
+
+    /**
+     * Runs a backward liveness analysis and records, for every definition, the variables live after it.
+     */
+    private BitSet[] interference(String owner, MethodNode methodNode, Variables variables, int[] uses, int[] defs) throws AnalyzerException {
+        var size = methodNode.instructions.size();
+        var successors = successors(owner, methodNode);
+        var liveIn = new BitSet[size];
+        var liveOut = new BitSet[size];
+
+        for (var i = 0; i < size; i++) {
+            liveIn[i] = new BitSet();
+            liveOut[i] = new BitSet();
+        }
+        var changed = true;
+
+        while (changed) {
+            changed = false;
+
+            for (var i = size - 1; i >= 0; i--) {
+                var out = liveOut[i];
+
+                for (var successor : successors.get(i)) {
+                    out.or(liveIn[successor]);
+                }
+                var in = (BitSet) out.clone();
+
+                if (defs[i] != -1) {
+                    in.clear(defs[i]);
+                }
+
+                if (uses[i] != -1) {
+                    in.set(uses[i]);
+                }
+
+                if (!in.equals(liveIn[i])) {
+                    liveIn[i] = in;
+                    changed = true;
+                }
+            }
+        }
+        var interference = new BitSet[variables.size()];
+
+        for (var variable = 0; variable < variables.size(); variable++) {
+            interference[variable] = new BitSet();
+        }
+
+        for (var i = 0; i < size; i++) {
+            var def = defs[i];
+
+            if (def == -1) {
+                continue;
+            }
+
+            for (var live = liveOut[i].nextSetBit(0); live >= 0; live = liveOut[i].nextSetBit(live + 1)) {
+                if (live != def) {
+                    interference[def].set(live);
+                    interference[live].set(def);
+                }
+            }
+        }
+        return interference;
+    }
+
+    private List<List<Integer>> successors(String owner, MethodNode methodNode) throws AnalyzerException {
+        var successors = new ArrayList<List<Integer>>(methodNode.instructions.size());
+
+        for (var i = 0; i < methodNode.instructions.size(); i++) {
+            successors.add(new ArrayList<>(2));
+        }
+
+        new Analyzer<>(new BasicInterpreter()) {
+
+            @Override
+            protected void newControlFlowEdge(int insnIndex, int successorIndex) {
+                addSuccessor(insnIndex, successorIndex);
+            }
+
+            @Override
+            protected boolean newControlFlowExceptionEdge(int insnIndex, int successorIndex) {
+                addSuccessor(insnIndex, successorIndex);
+                return true;
+            }
+
+            // the analyzer reports an edge again each time it revisits an instruction
+            private void addSuccessor(int insnIndex, int successorIndex) {
+                var insnSuccessors = successors.get(insnIndex);
+
+                if (!insnSuccessors.contains(successorIndex)) {
+                    insnSuccessors.add(successorIndex);
+                }
+            }
+        }.analyze(owner, methodNode);
+        return successors;
+    }
+
+    /**
+     * Gives each variable the lowest slot not overlapping a variable it interferes with, in order of appearance. The
+     * arguments come first and keep their slots.
+     */
+    private int[] allocate(Variables variables, BitSet[] interference) {
+        var slots = new int[variables.size()];
+        Arrays.fill(slots, -1);
+
+        for (var variable = 0; variable < variables.arguments(); variable++) {
+            slots[variable] = variables.slot(variable);
+        }
+
+        for (var variable = variables.arguments(); variable < variables.size(); variable++) {
+            var size = variables.size(variable);
+            var slot = 0;
+
+            while (overlaps(slot, size, interference[variable], slots, variables)) {
+                slot++;
+            }
+            slots[variable] = slot;
+        }
+        return slots;
+    }
+
+    private boolean overlaps(int slot, int size, BitSet interfering, int[] slots, Variables variables) {
+        for (var other = interfering.nextSetBit(0); other >= 0; other = interfering.nextSetBit(other + 1)) {
+            var otherSlot = slots[other];
+
+            if (otherSlot != -1 && slot < otherSlot + variables.size(other) && otherSlot < slot + size) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean usesSubroutines(MethodNode methodNode) {
+        for (var insn : methodNode.instructions) {
+            if (insn.getOpcode() == Opcodes.JSR || insn.getOpcode() == Opcodes.RET) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The variables of a method, a slot holding values of different types being one variable per type. The
+     * arguments are the first variables.
+     */
+    private static final class Variables {
+
+        private final Map<Long, Integer> ids = new HashMap<>();
+        private final List<Integer> slots = new ArrayList<>();
+        private final List<Integer> sizes = new ArrayList<>();
+        private int arguments;
+
+        /**
+         * @return the number of slots taken by the arguments
+         */
+        int addArguments(MethodNode methodNode) {
+            var slot = 0;
+
+            if ((methodNode.access & Opcodes.ACC_STATIC) == 0) {
+                of(slot++, Opcodes.ALOAD);
+            }
+
+            for (var argumentType : Type.getArgumentTypes(methodNode.desc)) {
+                of(slot, argumentType.getOpcode(Opcodes.ILOAD));
+                slot += argumentType.getSize();
+            }
+            arguments = slots.size();
+            return slot;
+        }
+
+        /**
+         * @param opcode a load or store opcode, giving the type of the variable
+         */
+        int of(int slot, int opcode) {
+            var sort = opcode >= Opcodes.ISTORE ? opcode - Opcodes.ISTORE : opcode - Opcodes.ILOAD;
+            return ids.computeIfAbsent((long) slot << 8 | sort, key -> {
+                slots.add(slot);
+                sizes.add(sort == 1 || sort == 3 ? 2 : 1); // LLOAD and DLOAD
+                return slots.size() - 1;
+            });
+        }
+
+        int size() {
+            return slots.size();
+        }
+
+        int arguments() {
+            return arguments;
+        }
+
+        int slot(int variable) {
+            return slots.get(variable);
+        }
+
+        int size(int variable) {
+            return sizes.get(variable);
+        }
+
+        int slotsUsed() {
+            var used = 0;
+
+            for (var variable = 0; variable < slots.size(); variable++) {
+                used = Math.max(used, slots.get(variable) + sizes.get(variable));
+            }
+            return used;
+        }
+    }
+}
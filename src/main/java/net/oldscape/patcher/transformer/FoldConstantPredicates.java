@@ -0,0 +1,206 @@
+package net.oldscape.patcher.transformer;
+
+import net.oldscape.patcher.ClassIndex;
+import net.oldscape.patcher.Transformer;
+import net.oldscape.patcher.analysis.ConstantFields;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Generalizes {@link RemoveImpossibleJumps} to every constant static field found by {@link ConstantFields}, folding
+ * the int and boolean comparisons made on them, directly or through a local only ever assigned that field: <br/>
+ * <pre>
+ * getstatic ac.d:int       // always 12
+ * bipush 12
+ * if_icmpeq L4
+ * </pre>
+ * becomes <code>goto L4</code> while a comparison that never holds is removed. {@link RemoveDeadCode}, when enabled,
+ * then removes the code left unreachable. Removing a field read can delay the initialization of its class, which the obfuscator's
+ * predicate fields don't depend on.
+ */
+public class FoldConstantPredicates implements Transformer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FoldConstantPredicates.class);
+
+    @Override
+    public void transform(Map<String, ClassNode> classNodes) {
+        var index = ClassIndex.of(classNodes.values());
+        var constants = ConstantFields.find(classNodes.values(), index);
+        var folds = new ConcurrentHashMap<String, Integer>();
+
+        classNodes.values()
+                  .parallelStream()
+                  .forEach(classNode -> classNode.methods.forEach(methodNode -> fold(index, constants, folds, methodNode)));
+
+        var folded = 0;
+
+        for (var constant : new TreeMap<>(constants).entrySet()) {
+            var fieldFolds = folds.getOrDefault(constant.getKey(), 0);
+            folded += fieldFolds;
+
+            if (fieldFolds > 0) {
+                LOGGER.info("{} = {}, folded {} branches", constant.getKey(), constant.getValue(), fieldFolds);
+            } else {
+                LOGGER.debug("{} = {}, no branches folded", constant.getKey(), constant.getValue());
+            }
+        }
+        LOGGER.info("Found {} constant fields and folded {} branches", constants.size(), folded);
+    }
+
+    private void fold(ClassIndex index, Map<String, Integer> constants, Map<String, Integer> folds, MethodNode methodNode) {
+        var instructions = methodNode.instructions;
+        var locals = constantLocals(index, constants, methodNode);
+
+        for (var insn : instructions.toArray()) {
+            if (!(insn instanceof JumpInsnNode jumpInsn)) {
+                continue;
+            }
+            var opcode = jumpInsn.getOpcode();
+
+            if (opcode >= Opcodes.IFEQ && opcode <= Opcodes.IFLE) {
+                var operand = jumpInsn.getPrevious();
+                var value = value(index, constants, locals, operand);
+
+                if (value == null || value.field() == null) {
+                    continue;
+                }
+                fold(instructions, jumpInsn, compare(opcode, value.value(), 0), operand);
+                folds.merge(value.field(), 1, Integer::sum);
+            } else if (opcode >= Opcodes.IF_ICMPEQ && opcode <= Opcodes.IF_ICMPLE) {
+                var right = jumpInsn.getPrevious();
+                var left = right == null ? null : right.getPrevious();
+                var rightValue = value(index, constants, locals, right);
+                var leftValue = value(index, constants, locals, left);
+
+                if (leftValue == null || rightValue == null) {
+                    continue;
+                }
+                var field = leftValue.field() == null ? rightValue.field() : leftValue.field();
+
+                if (field == null) {
+                    continue;
+                }
+                fold(instructions, jumpInsn, compare(opcode - Opcodes.IF_ICMPEQ + Opcodes.IFEQ, leftValue.value(), rightValue.value()), left, right);
+                folds.merge(field, 1, Integer::sum);
+            }
+        }
+        removeUnusedLocals(instructions, locals);
+    }
+
+    private void fold(InsnList instructions, JumpInsnNode jumpInsn, boolean jumps, AbstractInsnNode... operands) {
+        for (var operand : operands) {
+            instructions.remove(operand);
+        }
+
+        if (jumps) {
+            jumpInsn.setOpcode(Opcodes.GOTO);
+        } else {
+            instructions.remove(jumpInsn);
+        }
+    }
+
+    /**
+     * Evaluates an <code>if&lt;cond&gt;</code> opcode against the given operands.
+     */
+    private boolean compare(int opcode, int left, int right) {
+        return switch (opcode) {
+            case Opcodes.IFEQ -> left == right;
+            case Opcodes.IFNE -> left != right;
+            case Opcodes.IFLT -> left < right;
+            case Opcodes.IFGE -> left >= right;
+            case Opcodes.IFGT -> left > right;
+            case Opcodes.IFLE -> left <= right;
+            default -> throw new IllegalArgumentException("Not a comparison opcode: " + opcode);
+        };
+    }
+
+    /**
+     * The value pushed by a single instruction, either a constant field read, a constant local load or an int constant.
+     */
+    private ConstantValue value(ClassIndex index, Map<String, Integer> constants, Map<Integer, ConstantValue> locals, AbstractInsnNode insn) {
+        if (insn instanceof FieldInsnNode fieldInsn && insn.getOpcode() == Opcodes.GETSTATIC) {
+            var field = ConstantFields.resolve(index, fieldInsn);
+            var value = field == null ? null : constants.get(field);
+            return value == null ? null : new ConstantValue(field, value);
+        } else if (insn instanceof VarInsnNode varInsn && insn.getOpcode() == Opcodes.ILOAD) {
+            return locals.get(varInsn.var);
+        }
+        var constant = ConstantFields.intConstant(insn);
+        return constant == null ? null : new ConstantValue(null, constant);
+    }
+
+    /**
+     * Finds the locals only ever assigned the same constant field, arguments are never constant.
+     */
+    private Map<Integer, ConstantValue> constantLocals(ClassIndex index, Map<String, Integer> constants, MethodNode methodNode) {
+        var argumentsSize = Type.getArgumentsAndReturnSizes(methodNode.desc) >> 2;
+
+        if ((methodNode.access & Opcodes.ACC_STATIC) != 0) {
+            argumentsSize--;
+        }
+        var locals = new HashMap<Integer, ConstantValue>();
+        var excluded = new HashSet<Integer>();
+
+        for (var insn : methodNode.instructions) {
+            if (insn instanceof IincInsnNode iincInsn) {
+                excluded.add(iincInsn.var);
+            } else if (insn instanceof VarInsnNode varInsn && insn.getOpcode() == Opcodes.ISTORE) {
+                var value = value(index, constants, Map.of(), insn.getPrevious());
+
+                if (varInsn.var < argumentsSize || value == null || value.field() == null) {
+                    excluded.add(varInsn.var);
+                } else if (!value.equals(locals.getOrDefault(varInsn.var, value))) {
+                    excluded.add(varInsn.var);
+                } else {
+                    locals.put(varInsn.var, value);
+                }
+            }
+        }
+        excluded.forEach(locals::remove);
+        return locals;
+    }
+
+    /**
+     * Removes the assignments of the constant locals that are no longer loaded.
+     */
+    private void removeUnusedLocals(InsnList instructions, Map<Integer, ConstantValue> locals) {
+        var loaded = new HashSet<Integer>();
+
+        for (var insn : instructions) {
+            if (insn instanceof VarInsnNode varInsn && insn.getOpcode() == Opcodes.ILOAD) {
+                loaded.add(varInsn.var);
+            }
+        }
+
+        for (var insn : instructions.toArray()) {
+            if (insn instanceof VarInsnNode varInsn && insn.getOpcode() == Opcodes.ISTORE
+                    && locals.containsKey(varInsn.var) && !loaded.contains(varInsn.var)) {
+                instructions.remove(insn.getPrevious());
+                instructions.remove(insn);
+            }
+        }
+    }
+
+    /**
+     * @param field the constant field the value comes from or null for a literal
+     */
+    private record ConstantValue(String field, int value) {
+
+    }
+}
@@ -1,27 +1,21 @@
 package net.oldscape.patcher.transformer;
 
-import net.oldscape.patcher.Transformer;
+import net.oldscape.patcher.ClassTransformer;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
 
-import java.util.Map;
-
 import static net.oldscape.patcher.AsmUtils.findFirstMethodMatching;
 
 /*
  * This transformer fixes mouse right button clicks on jdks verions 9 and above.
  */
-public class Jdk9MouseFixer implements Transformer {
+public class Jdk9MouseFixer implements ClassTransformer {
 
     @Override
-    public void transform(Map<String, ClassNode> classNodes) {
-        classNodes.values().forEach(this::transform);
-    }
-
-    private void transform(ClassNode classNode) {
+    public void transform(ClassNode classNode) {
         var mousePressed = findFirstMethodMatching(classNode, method -> method.name.equals("mousePressed"));
 
         if (mousePressed != null) {
@@ -1,6 +1,6 @@
 package net.oldscape.patcher.transformer;
 
-import net.oldscape.patcher.Transformer;
+import net.oldscape.patcher.ClassTransformer;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.ClassNode;
@@ -8,19 +8,19 @@ import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.LabelNode;
 
-import java.util.Map;
-
 import static net.oldscape.patcher.AsmUtils.findMethod;
 
 /**
  * Removes the thrown T3 exceptions, these occur when the client fails to unpack a packed file.
  * This mostly happens for mapsquares we don't have keys for.
  */
-public class NopUnpackExceptions implements Transformer {
+public class NopUnpackExceptions implements ClassTransformer {
 
     @Override
-    public void transform(Map<String, ClassNode> classNodes) {
-        var classNode = classNodes.get("he");
+    public void transform(ClassNode classNode) {
+        if (!classNode.name.equals("he")) {
+            return;
+        }
         var methodNode = findMethod(classNode, "a", Type.BOOLEAN_TYPE, Type.getType(int[].class), Type.BYTE_TYPE, Type.INT_TYPE);
 
         var tryCatchBlock = methodNode.tryCatchBlocks.get(0);
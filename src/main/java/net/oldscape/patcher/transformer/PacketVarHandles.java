@@ -0,0 +1,313 @@
+package net.oldscape.patcher.transformer;
+
+import net.oldscape.patcher.Transformer;
+import net.oldscape.patcher.transformer.BigEndianGenerator.Accessor;
+import net.oldscape.patcher.transformer.PacketVariantMapper.MethodInfo;
+import net.oldscape.patcher.transformer.PacketVariantMapper.MethodVariants;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static net.oldscape.patcher.AsmUtils.findField;
+import static net.oldscape.patcher.AsmUtils.findMethod;
+import static net.oldscape.patcher.AsmUtils.pushInt;
+
+/**
+ * Rewrites the Packet <code>g2</code>, <code>g4</code>, <code>g8</code>, <code>p2</code>, <code>p4</code> and
+ * <code>p8</code> methods, which move one byte at a time, to big-endian {@link java.lang.invoke.VarHandle} accesses
+ * through the class generated by {@link BigEndianGenerator}: <br/>
+ * <pre>
+ * public int g2(int dummy) {
+ *     byte[] data = this.data;
+ *     int pos = this.pos;
+ *     if (dummy == -1 &amp;&amp; data != null &amp;&amp; pos &gt;= 0 &amp;&amp; pos &lt;= data.length - 2) {
+ *         this.pos = pos + 2;
+ *         return BigEndian.getUnsignedShort(data, pos);
+ *     }
+ *     return g2$slow(dummy);
+ * }
+ * </pre>
+ * The original body is kept as the private <code>$slow</code> method, so calls that could throw, or that pass another
+ * dummy value, still behave exactly like before. The dummy check is left out for the methods without a known dummy
+ * value. <br/>
+ * Each rewrite is then run against the original method by {@link AccessorCheck}, on the same inputs in two isolated
+ * class loaders, and reverted if the return value, exception, <code>pos</code> or <code>data</code> differ. The
+ * patched client needs Java 9 or later.
+ */
+public class PacketVarHandles implements Transformer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PacketVarHandles.class);
+
+    private static final String SLOW_SUFFIX = "$slow";
+
+    private final Map<String, String> mappings;
+    private final Map<String, List<MethodVariants>> variants;
+
+    private PacketVarHandles(Map<String, String> mappings, Map<String, List<MethodVariants>> variants) {
+        this.mappings = mappings;
+        this.variants = variants;
+    }
+
+    public static PacketVarHandles create(Map<String, String> mappings, Map<String, List<MethodVariants>> variants) {
+        return new PacketVarHandles(mappings, variants);
+    }
+
+    @Override
+    public void transform(Map<String, ClassNode> classNodes) {
+        var packet = classNodes.get(unmap(null, "Packet"));
+        var data = unmap(packet == null ? null : packet.name, "data");
+        var pos = unmap(packet == null ? null : packet.name, "pos");
+
+        if (packet == null || !hasField(packet, data, "[B") || !hasField(packet, pos, "I")) {
+            LOGGER.warn("Couldn't find the Packet class and its data and pos fields");
+            return;
+        }
+        var fields = new Fields(packet.name, data, pos);
+        var original = new ClassNode();
+        packet.accept(original);
+
+        var rewrites = new ArrayList<Rewrite>();
+
+        for (var accessor : Accessor.values()) {
+            var rewrite = rewrite(packet, fields, accessor);
+
+            if (rewrite != null) {
+                rewrites.add(rewrite);
+            }
+        }
+
+        if (rewrites.isEmpty()) {
+            return;
+        }
+        classNodes.put(BigEndianGenerator.BIG_ENDIAN, BigEndianGenerator.generate());
+
+        var failed = AccessorCheck.create(classNodes, original, fields).check(rewrites);
+
+        for (var rewrite : failed) {
+            rewrite.revert(packet);
+        }
+        rewrites.removeAll(failed);
+
+        if (rewrites.isEmpty()) {
+            classNodes.remove(BigEndianGenerator.BIG_ENDIAN);
+        }
+        LOGGER.info("Rewrote {} Packet methods to VarHandle accesses", rewrites.size());
+    }
+
+    private static boolean hasField(ClassNode classNode, String name, String desc) {
+        return name != null && findField(classNode, fieldNode -> fieldNode.name.equals(name) && fieldNode.desc.equals(desc)) != null;
+    }
+
+    private Rewrite rewrite(ClassNode packet, Fields fields, Accessor accessor) {
+        var method = unmapMethod(packet.name, accessor.mappedName);
+        var methodNode = method == null ? null : findMethod(packet, method.name(), Type.getReturnType(method.desc()), Type.getArgumentTypes(method.desc()));
+
+        if (methodNode == null) {
+            LOGGER.warn("Couldn't find the {} method", accessor.mappedName);
+            return null;
+        }
+        var argumentTypes = Type.getArgumentTypes(methodNode.desc);
+        var expectedReturn = accessor.write ? Type.VOID_TYPE : accessor.type;
+        var shapeMatches = Type.getReturnType(methodNode.desc).equals(expectedReturn) && argumentTypes.length == (accessor.write ? 2 : 1);
+
+        if (!shapeMatches || (methodNode.access & (Opcodes.ACC_STATIC | Opcodes.ACC_SYNCHRONIZED | Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0) {
+            LOGGER.warn("{}.{}{} isn't a {} method, not rewriting it", packet.name, methodNode.name, methodNode.desc, accessor.mappedName);
+            return null;
+        }
+        var info = variantInfo(packet.name, accessor.mappedName, methodNode);
+        var dummyIdx = info == null ? dummyIndex(argumentTypes, accessor) : info.dummyIdx();
+        var valueIdx = accessor.write ? 1 - dummyIdx : -1;
+
+        if (dummyIdx < 0 || argumentTypes[dummyIdx].getSort() > Type.INT || (valueIdx != -1 && !argumentTypes[valueIdx].equals(accessor.type))) {
+            LOGGER.warn("Couldn't find the dummy argument of {}.{}{}, not rewriting it", packet.name, methodNode.name, methodNode.desc);
+            return null;
+        }
+        var dummyValue = info == null ? null : info.dummyValue();
+        var fast = new MethodNode(methodNode.access, methodNode.name, methodNode.desc, methodNode.signature,
+                methodNode.exceptions.toArray(String[]::new));
+        fast.instructions = fastPath(fields, accessor, methodNode.name + SLOW_SUFFIX, methodNode.desc, dummyIdx, dummyValue);
+
+        var argumentsSize = Type.getArgumentsAndReturnSizes(methodNode.desc) >> 2;
+        fast.maxLocals = argumentsSize + 2;
+        fast.maxStack = Math.max(4, argumentsSize);
+
+        var rewrite = new Rewrite(accessor, fast, methodNode, methodNode.access, dummyIdx, dummyValue);
+        packet.methods.set(packet.methods.indexOf(methodNode), fast);
+        methodNode.name += SLOW_SUFFIX;
+        methodNode.access = methodNode.access & ~(Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED) | Opcodes.ACC_PRIVATE;
+        packet.methods.add(methodNode);
+        return rewrite;
+    }
+
+    private InsnList fastPath(Fields fields, Accessor accessor, String slowName, String desc, int dummyIdx, Object dummyValue) {
+        var owner = fields.owner();
+        var argumentTypes = Type.getArgumentTypes(desc);
+        var argumentsSize = Type.getArgumentsAndReturnSizes(desc) >> 2;
+        var dataLocal = argumentsSize;
+        var posLocal = argumentsSize + 1;
+        var slow = new LabelNode();
+
+        var insns = new InsnList();
+        insns.add(new VarInsnNode(Opcodes.ALOAD, 0));
+        insns.add(new FieldInsnNode(Opcodes.GETFIELD, owner, fields.data(), "[B"));
+        insns.add(new VarInsnNode(Opcodes.ASTORE, dataLocal));
+        insns.add(new VarInsnNode(Opcodes.ALOAD, 0));
+        insns.add(new FieldInsnNode(Opcodes.GETFIELD, owner, fields.pos(), "I"));
+        insns.add(new VarInsnNode(Opcodes.ISTORE, posLocal));
+
+        if (dummyValue != null) {
+            insns.add(new VarInsnNode(Opcodes.ILOAD, local(argumentTypes, dummyIdx)));
+            PacketVariantMapper.insertDummy(insns, dummyValue);
+            insns.add(new JumpInsnNode(Opcodes.IF_ICMPNE, slow));
+        }
+        insns.add(new VarInsnNode(Opcodes.ALOAD, dataLocal));
+        insns.add(new JumpInsnNode(Opcodes.IFNULL, slow));
+        insns.add(new VarInsnNode(Opcodes.ILOAD, posLocal));
+        insns.add(new JumpInsnNode(Opcodes.IFLT, slow));
+        insns.add(new VarInsnNode(Opcodes.ILOAD, posLocal));
+        insns.add(new VarInsnNode(Opcodes.ALOAD, dataLocal));
+        insns.add(new InsnNode(Opcodes.ARRAYLENGTH));
+        insns.add(pushInt(accessor.width()));
+        insns.add(new InsnNode(Opcodes.ISUB));
+        insns.add(new JumpInsnNode(Opcodes.IF_ICMPGT, slow));
+
+        insns.add(new VarInsnNode(Opcodes.ALOAD, 0));
+        insns.add(new VarInsnNode(Opcodes.ILOAD, posLocal));
+        insns.add(pushInt(accessor.width()));
+        insns.add(new InsnNode(Opcodes.IADD));
+        insns.add(new FieldInsnNode(Opcodes.PUTFIELD, owner, fields.pos(), "I"));
+        insns.add(new VarInsnNode(Opcodes.ALOAD, dataLocal));
+        insns.add(new VarInsnNode(Opcodes.ILOAD, posLocal));
+
+        if (accessor.write) {
+            insns.add(new VarInsnNode(accessor.type.getOpcode(Opcodes.ILOAD), local(argumentTypes, 1 - dummyIdx)));
+        }
+        insns.add(new MethodInsnNode(Opcodes.INVOKESTATIC, BigEndianGenerator.BIG_ENDIAN, accessor.helper, accessor.helperDesc()));
+        insns.add(new InsnNode(Type.getReturnType(desc).getOpcode(Opcodes.IRETURN)));
+
+        insns.add(slow);
+        insns.add(new VarInsnNode(Opcodes.ALOAD, 0));
+
+        for (var i = 0; i < argumentTypes.length; i++) {
+            insns.add(new VarInsnNode(argumentTypes[i].getOpcode(Opcodes.ILOAD), local(argumentTypes, i)));
+        }
+        insns.add(new MethodInsnNode(Opcodes.INVOKESPECIAL, owner, slowName, desc));
+        insns.add(new InsnNode(Type.getReturnType(desc).getOpcode(Opcodes.IRETURN)));
+        return insns;
+    }
+
+    /**
+     * The local holding an argument of an instance method.
+     */
+    private static int local(Type[] argumentTypes, int argument) {
+        var local = 1;
+
+        for (var i = 0; i < argument; i++) {
+            local += argumentTypes[i].getSize();
+        }
+        return local;
+    }
+
+    /**
+     * Guesses the dummy argument of a method without packet-variants.toml entry: the only argument of a read, or the
+     * argument of a write that can't be the value.
+     */
+    private static int dummyIndex(Type[] argumentTypes, Accessor accessor) {
+        if (!accessor.write) {
+            return 0;
+        }
+        var firstIsValue = argumentTypes[0].equals(accessor.type);
+        var secondIsValue = argumentTypes[1].equals(accessor.type);
+
+        if (firstIsValue == secondIsValue) {
+            return -1;
+        }
+        return firstIsValue ? 1 : 0;
+    }
+
+    private MethodInfo variantInfo(String owner, String mappedName, MethodNode methodNode) {
+        for (var methodVariants : variants.getOrDefault(owner, List.of())) {
+            var method = methodVariants.method();
+
+            if (methodVariants.name().equals(mappedName) && method.name().equals(methodNode.name) && method.desc().equals(methodNode.desc)) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the source name of a class, when owner is null, or of one of the owner's fields.
+     */
+    private String unmap(String owner, String mappedName) {
+        for (var mapping : mappings.entrySet()) {
+            var key = mapping.getKey();
+            var member = owner == null ? !key.contains(".") : key.startsWith(owner + ".") && !key.contains("(");
+
+            if (member && mapping.getValue().equals(mappedName)) {
+                return owner == null ? key : key.substring(owner.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    private SourceMethod unmapMethod(String owner, String mappedName) {
+        for (var mapping : mappings.entrySet()) {
+            var key = mapping.getKey();
+            var descStart = key.indexOf('(');
+
+            if (descStart != -1 && key.startsWith(owner + ".") && mapping.getValue().equals(mappedName)) {
+                return new SourceMethod(key.substring(owner.length() + 1, descStart), key.substring(descStart));
+            }
+        }
+        return null;
+    }
+
+    private record SourceMethod(String name, String desc) {
+
+    }
+
+    /**
+     * The source names of the Packet class and of its buffer fields.
+     */
+    record Fields(String owner, String data, String pos) {
+
+    }
+
+    /**
+     * A rewritten method, the slow method being the original one renamed.
+     *
+     * @param dummyValue the dummy value checked by the fast path or null if it isn't known
+     */
+    record Rewrite(Accessor accessor, MethodNode fast, MethodNode slow, int access, int dummyIdx, Object dummyValue) {
+
+        String name() {
+            return fast.name;
+        }
+
+        String desc() {
+            return fast.desc;
+        }
+
+        void revert(ClassNode packet) {
+            packet.methods.remove(slow);
+            slow.name = fast.name;
+            slow.access = access;
+            packet.methods.set(packet.methods.indexOf(fast), slow);
+        }
+    }
+}
@@ -1,13 +1,12 @@
 package net.oldscape.patcher.transformer;
 
-import net.oldscape.patcher.Transformer;
+import net.oldscape.patcher.ClassIndex;
+import net.oldscape.patcher.ClassTransformer;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
-import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.InsnNode;
-import org.objectweb.asm.tree.IntInsnNode;
 import org.objectweb.asm.tree.LdcInsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.VarInsnNode;
@@ -18,11 +17,14 @@ import java.util.List;
 import java.util.Map;
 
 import static net.oldscape.patcher.AsmUtils.findMethod;
+import static net.oldscape.patcher.AsmUtils.pushInt;
 
-public class PacketVariantMapper implements Transformer {
+public class PacketVariantMapper implements ClassTransformer {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PacketVariantMapper.class);
 
+    public static final int DUMMY_ARGUMENT = -1;
+
     private final Map<String, List<MethodVariants>> variants;
 
     public PacketVariantMapper(Map<String, List<MethodVariants>> variants) {
@@ -34,20 +36,25 @@ public class PacketVariantMapper implements Transformer {
     }
 
     @Override
-    public void transform(Map<String, ClassNode> classNodes) {
-        for (var entry : variants.entrySet()) {
-            var classNode = classNodes.get(entry.getKey());
-
-            if (classNode == null) {
-                LOGGER.warn("No classNode found for mapping {}", entry.getKey());
-                continue;
+    public void prepare(ClassIndex index) {
+        for (var owner : variants.keySet()) {
+            if (!index.contains(owner)) {
+                LOGGER.warn("No classNode found for mapping {}", owner);
             }
-            var methodVariants = entry.getValue();
+        }
+    }
 
-            for (var methodVariant : methodVariants) {
-                methodVariant.variants()
-                             .forEach(methodInfo -> mapVariantTo(classNode, methodInfo, methodVariant.method));
-            }
+    @Override
+    public void transform(ClassNode classNode) {
+        var methodVariants = variants.get(classNode.name);
+
+        if (methodVariants == null) {
+            return;
+        }
+
+        for (var methodVariant : methodVariants) {
+            methodVariant.variants()
+                         .forEach(methodInfo -> mapVariantTo(classNode, methodInfo, methodVariant.method));
         }
     }
 
@@ -58,44 +65,23 @@ public class PacketVariantMapper implements Transformer {
             LOGGER.warn("Couldn't find original method {}.{}{}", owner.name, original.name, original.desc);
             return;
         }
-        var argumentTypes = Type.getArgumentTypes(original.desc);
         var variantArgumentTypes = Type.getArgumentTypes(variant.desc);
         var returnType = Type.getReturnType(original.desc);
 
-        var argMapping = variant.argMapping;
-        if (argumentTypes.length > 2 && argMapping == null) {
+        var argumentSources = argumentSources(original, variant);
+        if (argumentSources == null) {
             LOGGER.warn("Variant mapping failed as variant {}{} has more than 1 argument and no arg mapping was provided", variant.name, variant.desc);
             return;
         }
         var insns = new InsnList();
         insns.add(new VarInsnNode(Opcodes.ALOAD, 0));
 
-        if (argMapping == null) {
-            // can only deduce parameter order when we have two args methods
-            var variantArgIdx = 0;
-            for (int argIdx = 0; argIdx < argumentTypes.length; argIdx++) {
-                if (original.dummyIdx == argIdx) {
-                    insertDummy(insns, original.dummyValue);
-                } else {
-                    // skip the variant dummy parameter, if any
-                    if (variantArgIdx == variant.dummyIdx) {
-                        variantArgIdx++;
-                    }
-                    var opcode = variantArgumentTypes[variantArgIdx].getOpcode(Opcodes.ILOAD);
-                    insns.add(new VarInsnNode(opcode, variantArgIdx + 1)); // + 1 as 0 is 'this'
-                    variantArgIdx++;
-                }
-            }
-        } else {
-            for (int argIdx = 0; argIdx < argumentTypes.length; argIdx++) {
-                if (original.dummyIdx == argIdx) {
-                    insertDummy(insns, original.dummyValue);
-                } else {
-                    // skip the variant dummy parameter, if any
-                    var variantArgIdx = argMapping[argIdx];
-                    var opcode = variantArgumentTypes[variantArgIdx].getOpcode(Opcodes.ILOAD);
-                    insns.add(new VarInsnNode(opcode, variantArgIdx + 1)); // + 1 as 0 is 'this'
-                }
+        for (var variantArgIdx : argumentSources) {
+            if (variantArgIdx == DUMMY_ARGUMENT) {
+                insertDummy(insns, original.dummyValue);
+            } else {
+                var opcode = variantArgumentTypes[variantArgIdx].getOpcode(Opcodes.ILOAD);
+                insns.add(new VarInsnNode(opcode, variantArgIdx + 1)); // + 1 as 0 is 'this'
             }
         }
         insns.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, owner.name, original.name, original.desc));
@@ -111,27 +97,52 @@ public class PacketVariantMapper implements Transformer {
         variantMethod.tryCatchBlocks.clear();
     }
 
-    private void insertDummy(InsnList list, Object dummy) {
+    /**
+     * Resolves, for each argument of the original method, the index of the variant argument it is taken from or
+     * {@link #DUMMY_ARGUMENT} when the original dummy value has to be passed instead.
+     *
+     * @return the argument sources or null if they can't be deduced
+     */
+    public static int[] argumentSources(MethodInfo original, MethodInfo variant) {
+        var argumentCount = Type.getArgumentTypes(original.desc).length;
+        var argMapping = variant.argMapping;
+
+        // can only deduce parameter order when we have two args methods
+        if (argumentCount > 2 && argMapping == null) {
+            return null;
+        }
+        var sources = new int[argumentCount];
+        var variantArgIdx = 0;
+
+        for (int argIdx = 0; argIdx < argumentCount; argIdx++) {
+            if (original.dummyIdx == argIdx) {
+                sources[argIdx] = DUMMY_ARGUMENT;
+            } else if (argMapping != null) {
+                sources[argIdx] = argMapping[argIdx];
+            } else {
+                // skip the variant dummy parameter, if any
+                if (variantArgIdx == variant.dummyIdx) {
+                    variantArgIdx++;
+                }
+                sources[argIdx] = variantArgIdx++;
+            }
+        }
+        return sources;
+    }
+
+    static void insertDummy(InsnList list, Object dummy) {
         if (dummy instanceof Boolean bool) {
             list.add(new InsnNode(bool ? Opcodes.ICONST_1 : Opcodes.ICONST_0));
         } else if (dummy instanceof Integer integer) {
-            AbstractInsnNode insn;
-            if (integer >= -1 && integer <= 5) {
-                insn = new InsnNode(Opcodes.ICONST_0 + integer);
-            } else if (integer >= Byte.MIN_VALUE && integer <= Byte.MAX_VALUE) {
-                insn = new IntInsnNode(Opcodes.BIPUSH, integer);
-            } else if (integer >= Short.MIN_VALUE && integer <= Short.MAX_VALUE) {
-                insn = new IntInsnNode(Opcodes.SIPUSH, integer);
-            } else {
-                insn = new LdcInsnNode(integer);
-            }
-            list.add(insn);
+            list.add(pushInt(integer));
         } else if (dummy instanceof Long cst) {
             if (cst == 0 || cst == 1) {
                 list.add(new InsnNode(Opcodes.LCONST_0 + cst.intValue()));
             } else {
                 list.add(new LdcInsnNode(cst));
             }
+        } else {
+            throw new IllegalArgumentException("Unsupported dummy value " + dummy + ", packet-variants.toml must give the dummyValue of every original method");
         }
     }
 
@@ -0,0 +1,272 @@
+package net.oldscape.patcher.transformer;
+
+import net.oldscape.patcher.ClassIndex;
+import net.oldscape.patcher.Transformer;
+import net.oldscape.patcher.transformer.PacketVariantMapper.MethodInfo;
+import net.oldscape.patcher.transformer.PacketVariantMapper.MethodVariants;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static net.oldscape.patcher.AsmUtils.nextFreeLocal;
+import static net.oldscape.patcher.transformer.PacketVariantMapper.DUMMY_ARGUMENT;
+
+/**
+ * Rewrites every call to a {@link PacketVariantMapper} variant into a direct call to the original method, the variant
+ * arguments are reordered through fresh locals and the dummy argument is replaced by the original dummy value: <br/>
+ * <pre>
+ * aload 1
+ * iload 2
+ * iconst_0
+ * invokevirtual tc.a(IZ)V
+ * </pre>
+ * becomes
+ * <pre>
+ * aload 1
+ * iload 2
+ * istore 5
+ * iconst_0
+ * iload 5
+ * invokevirtual tc.b(II)V
+ * </pre>
+ * Variants that are no longer called anywhere are removed afterwards.
+ */
+public class PacketVariantRedirector implements Transformer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PacketVariantRedirector.class);
+
+    private final Map<String, List<MethodVariants>> variants;
+
+    private PacketVariantRedirector(Map<String, List<MethodVariants>> variants) {
+        this.variants = variants;
+    }
+
+    public static PacketVariantRedirector create(Map<String, List<MethodVariants>> variants) {
+        return new PacketVariantRedirector(variants);
+    }
+
+    @Override
+    public void transform(Map<String, ClassNode> classNodes) {
+        var index = ClassIndex.of(classNodes.values());
+        var redirects = collectRedirects(index);
+        var redirected = 0;
+
+        for (var classNode : classNodes.values()) {
+            for (var methodNode : classNode.methods) {
+                redirected += redirectCalls(index, redirects, methodNode);
+            }
+        }
+        var removed = removeUnusedVariants(classNodes, index, redirects);
+        LOGGER.info("Redirected {} variant call sites and removed {} unused variants", redirected, removed);
+    }
+
+    private Map<String, Map<String, Redirect>> collectRedirects(ClassIndex index) {
+        var redirects = new HashMap<String, Map<String, Redirect>>();
+
+        for (var entry : variants.entrySet()) {
+            var owner = entry.getKey();
+
+            if (!index.contains(owner)) {
+                continue;
+            }
+
+            for (var methodVariants : entry.getValue()) {
+                var original = methodVariants.method();
+
+                for (var variant : methodVariants.variants()) {
+                    var sources = PacketVariantMapper.argumentSources(original, variant);
+
+                    if (sources == null || !Type.getReturnType(original.desc()).equals(Type.getReturnType(variant.desc()))) {
+                        LOGGER.warn("Can't redirect calls to variant {}.{}{}", owner, variant.name(), variant.desc());
+                        continue;
+                    }
+
+                    if (isOverridden(index, owner, variant)) {
+                        LOGGER.warn("Variant {}.{}{} is overridden, calls to it are left untouched", owner, variant.name(), variant.desc());
+                        continue;
+                    }
+                    redirects.computeIfAbsent(owner, key -> new HashMap<>())
+                             .put(variant.name() + variant.desc(), new Redirect(original, variant, sources));
+                }
+            }
+        }
+        return redirects;
+    }
+
+    private boolean isOverridden(ClassIndex index, String owner, MethodInfo variant) {
+        return index.classes()
+                    .stream()
+                    .filter(info -> !info.name().equals(owner) && index.isAssignableTo(info.name(), owner))
+                    .anyMatch(info -> info.declaresMethod(variant.name(), variant.desc()));
+    }
+
+    private int redirectCalls(ClassIndex index, Map<String, Map<String, Redirect>> redirects, MethodNode methodNode) {
+        var instructions = methodNode.instructions;
+        var firstFreeLocal = -1;
+        var redirected = 0;
+
+        for (var insn : instructions.toArray()) {
+            if (!(insn instanceof MethodInsnNode methodInsn) || methodInsn.getOpcode() != Opcodes.INVOKEVIRTUAL) {
+                continue;
+            }
+            var redirect = findRedirect(index, redirects, methodInsn);
+
+            if (redirect == null) {
+                continue;
+            }
+
+            if (firstFreeLocal == -1) {
+                firstFreeLocal = nextFreeLocal(methodNode);
+            }
+            // the spilled arguments are reloaded right away so every call site can reuse the same locals
+            var nextLocal = firstFreeLocal;
+            var argumentTypes = Type.getArgumentTypes(redirect.variant.desc());
+            var locals = new int[argumentTypes.length];
+            var used = new boolean[argumentTypes.length];
+
+            for (var source : redirect.sources) {
+                if (source != DUMMY_ARGUMENT) {
+                    used[source] = true;
+                }
+            }
+            var replacement = new InsnList();
+
+            // the variant arguments are on top of the stack, last argument first
+            for (var argIdx = argumentTypes.length - 1; argIdx >= 0; argIdx--) {
+                var type = argumentTypes[argIdx];
+
+                if (used[argIdx]) {
+                    locals[argIdx] = nextLocal;
+                    nextLocal += type.getSize();
+                    replacement.add(new VarInsnNode(type.getOpcode(Opcodes.ISTORE), locals[argIdx]));
+                } else if (argIdx == argumentTypes.length - 1 && replacement.size() == 0 && isConstantPush(methodInsn.getPrevious())) {
+                    // the dummy is usually pushed right before the call, drop the push instead of popping it
+                    instructions.remove(methodInsn.getPrevious());
+                } else {
+                    replacement.add(new InsnNode(type.getSize() == 2 ? Opcodes.POP2 : Opcodes.POP));
+                }
+            }
+
+            for (var source : redirect.sources) {
+                if (source == DUMMY_ARGUMENT) {
+                    PacketVariantMapper.insertDummy(replacement, redirect.original.dummyValue());
+                } else {
+                    replacement.add(new VarInsnNode(argumentTypes[source].getOpcode(Opcodes.ILOAD), locals[source]));
+                }
+            }
+            replacement.add(new MethodInsnNode(Opcodes.INVOKEVIRTUAL, methodInsn.owner, redirect.original.name(), redirect.original.desc()));
+            methodNode.maxLocals = Math.max(methodNode.maxLocals, nextLocal);
+
+            instructions.insert(methodInsn, replacement);
+            instructions.remove(methodInsn);
+            redirected++;
+        }
+        return redirected;
+    }
+
+    /**
+     * Resolves the called method to its declaring class, following the super classes of the call owner.
+     */
+    private Redirect findRedirect(ClassIndex index, Map<String, Map<String, Redirect>> redirects, MethodInsnNode methodInsn) {
+        var owner = methodInsn.owner;
+
+        while (owner != null) {
+            var info = index.get(owner);
+
+            if (info == null) {
+                return null;
+            }
+
+            if (info.declaresMethod(methodInsn.name, methodInsn.desc)) {
+                var ownerRedirects = redirects.get(owner);
+                return ownerRedirects == null ? null : ownerRedirects.get(methodInsn.name + methodInsn.desc);
+            }
+            owner = info.superName();
+        }
+        return null;
+    }
+
+    private int removeUnusedVariants(Map<String, ClassNode> classNodes, ClassIndex index, Map<String, Map<String, Redirect>> redirects) {
+        var called = new HashSet<String>();
+
+        for (var classNode : classNodes.values()) {
+            for (var methodNode : classNode.methods) {
+                for (var insn : methodNode.instructions) {
+                    if (insn instanceof MethodInsnNode methodInsn) {
+                        called.add(methodInsn.name + methodInsn.desc);
+                    }
+                }
+            }
+        }
+        var removed = 0;
+
+        for (var entry : redirects.entrySet()) {
+            var classNode = classNodes.get(entry.getKey());
+
+            if (overridesLibraryMethods(index, classNode)) {
+                continue;
+            }
+            var unused = new HashSet<>(entry.getValue().keySet());
+            unused.removeAll(called);
+            unused.removeIf(method -> isInherited(index, classNode.superName, method));
+
+            var methodCount = classNode.methods.size();
+            classNode.methods.removeIf(methodNode -> unused.contains(methodNode.name + methodNode.desc));
+            removed += methodCount - classNode.methods.size();
+        }
+        return removed;
+    }
+
+    /**
+     * Classes extending library classes other than Object could be overriding any library method.
+     */
+    private boolean overridesLibraryMethods(ClassIndex index, ClassNode classNode) {
+        var superName = classNode.superName;
+
+        while (index.contains(superName)) {
+            superName = index.get(superName).superName();
+        }
+        return !"java/lang/Object".equals(superName);
+    }
+
+    private boolean isInherited(ClassIndex index, String superName, String method) {
+        while (superName != null && index.contains(superName)) {
+            var info = index.get(superName);
+
+            if (info.methods().contains(method)) {
+                return true;
+            }
+            superName = info.superName();
+        }
+        return false;
+    }
+
+    private boolean isConstantPush(AbstractInsnNode insn) {
+        if (insn == null) {
+            return false;
+        }
+        var opcode = insn.getOpcode();
+        return (opcode >= Opcodes.ICONST_M1 && opcode <= Opcodes.DCONST_1)
+                || opcode == Opcodes.BIPUSH
+                || opcode == Opcodes.SIPUSH
+                || (insn instanceof LdcInsnNode ldcInsn && (ldcInsn.cst instanceof Number));
+    }
+
+    private record Redirect(MethodInfo original, MethodInfo variant, int[] sources) {
+
+    }
+}
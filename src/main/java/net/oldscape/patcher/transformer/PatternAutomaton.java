@@ -0,0 +1,257 @@
+package net.oldscape.patcher.transformer;
+
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.IntInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.objectweb.asm.util.Printer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Finds the matches of many instruction patterns in a single scan of a method. <br/>
+ * The opcode sequences of all the patterns make one trie, with Aho-Corasick failure links so that a mismatch falls
+ * back to the longest sequence still matching instead of restarting: every instruction is looked at once whatever
+ * the number of patterns. A pattern element accepting several opcodes adds one sequence per opcode. Once the opcodes
+ * match, the operand constraints of the elements are checked on the matched instructions. <br/>
+ * Labels are jump targets so they end the sequence being matched, the other pseudo instructions are skipped.
+ */
+final class PatternAutomaton {
+
+    private final Node root = new Node();
+    private final int longestPattern;
+
+    PatternAutomaton(List<Pattern> patterns) {
+        for (var pattern : patterns) {
+            for (var sequence : sequences(pattern.elements())) {
+                var node = root;
+
+                for (var opcode : sequence) {
+                    node = node.next.computeIfAbsent(opcode, key -> new Node());
+                }
+                node.outputs.add(pattern);
+            }
+        }
+        longestPattern = patterns.stream().mapToInt(pattern -> pattern.elements().size()).max().orElse(0);
+        link();
+    }
+
+    /**
+     * @return the matches in the order they end, overlapping ones included
+     */
+    List<Match> scan(InsnList instructions) {
+        var matches = new ArrayList<Match>();
+        var window = new ArrayDeque<AbstractInsnNode>(longestPattern);
+        var node = root;
+
+        for (var insn : instructions) {
+            if (insn.getOpcode() == -1) {
+                if (insn instanceof LabelNode) {
+                    node = root;
+                    window.clear();
+                }
+                continue;
+            }
+
+            if (window.size() == longestPattern) {
+                window.removeFirst();
+            }
+            window.addLast(insn);
+            node = step(node, insn.getOpcode());
+
+            for (var pattern : node.outputs) {
+                var insns = new ArrayList<>(window).subList(window.size() - pattern.elements().size(), window.size());
+
+                if (pattern.accepts(insns)) {
+                    matches.add(new Match(pattern, List.copyOf(insns)));
+                }
+            }
+        }
+        return matches;
+    }
+
+    private Node step(Node node, int opcode) {
+        while (node != root && !node.next.containsKey(opcode)) {
+            node = node.failure;
+        }
+        return node.next.getOrDefault(opcode, root);
+    }
+
+    /**
+     * Sets the failure link of every node, breadth first, and adds the outputs of the node it links to.
+     */
+    private void link() {
+        var queue = new ArrayDeque<Node>();
+
+        for (var child : root.next.values()) {
+            child.failure = root;
+            queue.add(child);
+        }
+
+        while (!queue.isEmpty()) {
+            var node = queue.poll();
+
+            for (var edge : node.next.entrySet()) {
+                var child = edge.getValue();
+                child.failure = step(node.failure, edge.getKey());
+                child.outputs.addAll(child.failure.outputs);
+                queue.add(child);
+            }
+        }
+    }
+
+    private static List<List<Integer>> sequences(List<Element> elements) {
+        List<List<Integer>> sequences = List.of(List.of());
+
+        for (var element : elements) {
+            var extended = new ArrayList<List<Integer>>();
+
+            for (var sequence : sequences) {
+                for (var opcode : element.opcodes()) {
+                    var longer = new ArrayList<>(sequence);
+                    longer.add(opcode);
+                    extended.add(longer);
+                }
+            }
+            sequences = extended;
+        }
+        return sequences;
+    }
+
+    private static final class Node {
+
+        private final Map<Integer, Node> next = new HashMap<>();
+        private final List<Pattern> outputs = new ArrayList<>();
+        private Node failure;
+    }
+
+    /**
+     * @param actions the rewrites to apply to a match, by the index of the element they target
+     */
+    record Pattern(String name, List<Element> elements, List<Action> actions) {
+
+        boolean accepts(List<AbstractInsnNode> insns) {
+            for (var i = 0; i < insns.size(); i++) {
+                if (!elements.get(i).constraint().test(insns.get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        int capture(String name) {
+            for (var i = 0; i < elements.size(); i++) {
+                if (name.equals(elements.get(i).capture())) {
+                    return i;
+                }
+            }
+            throw new IllegalArgumentException("Pattern " + this.name + " has no capture named " + name);
+        }
+    }
+
+    /**
+     * One instruction of a pattern, written <code>opcode|opcode[constraint]@capture</code> with the constraint and the
+     * capture optional. The constraint is the type of an <code>ldc</code> constant (int, long, float, double, string
+     * or type), the owner.name or owner.name:desc of a field, the owner.name(desc) of a method keyed like
+     * mappings.toml, the internal name of a type instruction or the operand of a <code>bipush</code> or
+     * <code>sipush</code>.
+     */
+    record Element(List<Integer> opcodes, Predicate<AbstractInsnNode> constraint, String capture) {
+
+        static Element parse(String text) {
+            String capture = null;
+            var at = text.indexOf('@');
+
+            if (at != -1) {
+                capture = text.substring(at + 1);
+                text = text.substring(0, at);
+            }
+            Predicate<AbstractInsnNode> constraint = insn -> true;
+            var bracket = text.indexOf('[');
+
+            if (bracket != -1) {
+                if (!text.endsWith("]")) {
+                    throw new IllegalArgumentException("Unclosed constraint in pattern element " + text);
+                }
+                constraint = constraint(text.substring(bracket + 1, text.length() - 1));
+                text = text.substring(0, bracket);
+            }
+            var opcodes = new ArrayList<Integer>();
+
+            for (var mnemonic : text.split("\\|")) {
+                opcodes.add(opcode(mnemonic.strip()));
+            }
+            return new Element(List.copyOf(opcodes), constraint, capture);
+        }
+
+        private static int opcode(String mnemonic) {
+            for (var opcode = 0; opcode < Printer.OPCODES.length; opcode++) {
+                if (!Printer.OPCODES[opcode].isEmpty() && Printer.OPCODES[opcode].equalsIgnoreCase(mnemonic)) {
+                    return opcode;
+                }
+            }
+            throw new IllegalArgumentException("Unknown opcode " + mnemonic);
+        }
+
+        private static Predicate<AbstractInsnNode> constraint(String constraint) {
+            return switch (constraint) {
+                case "int" -> insn -> insn instanceof LdcInsnNode ldcInsn && ldcInsn.cst instanceof Integer;
+                case "long" -> insn -> insn instanceof LdcInsnNode ldcInsn && ldcInsn.cst instanceof Long;
+                case "float" -> insn -> insn instanceof LdcInsnNode ldcInsn && ldcInsn.cst instanceof Float;
+                case "double" -> insn -> insn instanceof LdcInsnNode ldcInsn && ldcInsn.cst instanceof Double;
+                case "string" -> insn -> insn instanceof LdcInsnNode ldcInsn && ldcInsn.cst instanceof String;
+                case "type" -> insn -> insn instanceof LdcInsnNode ldcInsn && ldcInsn.cst instanceof Type;
+                default -> insn -> constraint.equals(operand(insn))
+                        || insn instanceof FieldInsnNode fieldInsn && constraint.equals(operand(insn) + ":" + fieldInsn.desc);
+            };
+        }
+
+        private static String operand(AbstractInsnNode insn) {
+            if (insn instanceof FieldInsnNode fieldInsn) {
+                return fieldInsn.owner + "." + fieldInsn.name;
+            } else if (insn instanceof MethodInsnNode methodInsn) {
+                return methodInsn.owner + "." + methodInsn.name + methodInsn.desc;
+            } else if (insn instanceof TypeInsnNode typeInsn) {
+                return typeInsn.desc;
+            } else if (insn instanceof IntInsnNode intInsn) {
+                return String.valueOf(intInsn.operand);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @param value the operand of the action, the mask of {@link Kind#MASK}
+     */
+    record Action(Kind kind, int element, long value) {
+
+        enum Kind {
+            /**
+             * Masks the <code>ldc</code> int or long constant.
+             */
+            MASK,
+            /**
+             * Removes the instruction.
+             */
+            REMOVE,
+            /**
+             * Turns the conditional jump into a <code>goto</code>, the pattern removing what it was testing.
+             */
+            GOTO
+        }
+    }
+
+    record Match(Pattern pattern, List<AbstractInsnNode> insns) {
+
+    }
+}
@@ -0,0 +1,161 @@
+package net.oldscape.patcher.transformer;
+
+import net.oldscape.patcher.ClassTransformer;
+import net.oldscape.patcher.transformer.PatternAutomaton.Action;
+import net.oldscape.patcher.transformer.PatternAutomaton.Element;
+import net.oldscape.patcher.transformer.PatternAutomaton.Match;
+import net.oldscape.patcher.transformer.PatternAutomaton.Pattern;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Rewrites the instruction shapes described in patterns.toml, like the out of range shift distances the obfuscator
+ * uses. Each pattern is a sequence of instructions, some captured by name, and the actions applied to the captured
+ * instructions of every match. All the patterns are matched together by a {@link PatternAutomaton}, in a single scan
+ * of each method. <br/>
+ * The matches are found before any rewrite, so a match sharing an instruction with a match already rewritten is
+ * skipped.
+ */
+public class PatternTransformer implements ClassTransformer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PatternTransformer.class);
+
+    private final PatternAutomaton automaton;
+    private final Map<String, Integer> rewrites = new LinkedHashMap<>();
+
+    private PatternTransformer(PatternAutomaton automaton, List<Pattern> patterns) {
+        this.automaton = automaton;
+        patterns.forEach(pattern -> rewrites.put(pattern.name(), 0));
+    }
+
+    public static PatternTransformer create(PatternConfig config) {
+        var patterns = config.patterns().stream().map(PatternTransformer::compile).toList();
+        return new PatternTransformer(new PatternAutomaton(patterns), patterns);
+    }
+
+    private static Pattern compile(PatternDefinition definition) {
+        var elements = definition.match().stream().map(Element::parse).toList();
+        var partial = new Pattern(definition.name(), elements, List.of());
+        var actions = new ArrayList<Action>();
+
+        for (var action : definition.actions()) {
+            Action.Kind kind;
+
+            try {
+                kind = Action.Kind.valueOf(action.action().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown action " + action.action() + " in pattern " + definition.name(), e);
+            }
+
+            var element = partial.capture(action.capture());
+            var opcodes = elements.get(element).opcodes();
+
+            if (kind == Action.Kind.MASK && (action.value() == null || !opcodes.equals(List.of(Opcodes.LDC)))) {
+                throw new IllegalArgumentException("The mask action of pattern " + definition.name() + " needs a value and an ldc capture");
+            }
+
+            if (kind == Action.Kind.GOTO && !opcodes.stream().allMatch(PatternTransformer::isConditionalJump)) {
+                throw new IllegalArgumentException("The goto action of pattern " + definition.name() + " needs a conditional jump capture");
+            }
+            actions.add(new Action(kind, element, action.value() == null ? 0 : action.value()));
+        }
+        return new Pattern(definition.name(), elements, List.copyOf(actions));
+    }
+
+    private static boolean isConditionalJump(int opcode) {
+        return opcode >= Opcodes.IFEQ && opcode <= Opcodes.IF_ACMPNE || opcode == Opcodes.IFNULL || opcode == Opcodes.IFNONNULL;
+    }
+
+    @Override
+    public void finish() {
+        rewrites.forEach((name, count) -> LOGGER.info("Rewrote {} matches of pattern {}", count, name));
+    }
+
+    @Override
+    public void transform(ClassNode classNode) {
+        classNode.methods.forEach(this::transform);
+    }
+
+    private void transform(MethodNode methodNode) {
+        var rewritten = new HashSet<AbstractInsnNode>();
+
+        for (var match : automaton.scan(methodNode.instructions)) {
+            if (match.insns().stream().anyMatch(rewritten::contains)) {
+                continue;
+            }
+
+            if (rewrite(methodNode, match)) {
+                rewritten.addAll(match.insns());
+                rewrites.merge(match.pattern().name(), 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * @return whether the match was rewritten, a mask leaving its constant unchanged doesn't count
+     */
+    private boolean rewrite(MethodNode methodNode, Match match) {
+        var changed = false;
+
+        for (var action : match.pattern().actions()) {
+            var insn = match.insns().get(action.element());
+
+            switch (action.kind()) {
+                case MASK -> {
+                    var ldcInsn = (LdcInsnNode) insn;
+                    var constant = ldcInsn.cst;
+
+                    if (constant instanceof Integer value) {
+                        ldcInsn.cst = value & (int) action.value();
+                    } else if (constant instanceof Long value) {
+                        ldcInsn.cst = value & action.value();
+                    }
+                    changed |= !constant.equals(ldcInsn.cst);
+                }
+                case REMOVE -> {
+                    methodNode.instructions.remove(insn);
+                    changed = true;
+                }
+                case GOTO -> {
+                    ((JumpInsnNode) insn).setOpcode(Opcodes.GOTO);
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    public record PatternConfig(List<PatternDefinition> patterns) {
+
+    }
+
+    /**
+     * @param match   the instructions, see {@link PatternAutomaton.Element} for their syntax
+     * @param actions the rewrites of the captured instructions
+     */
+    public record PatternDefinition(String name, List<String> match, List<ActionDefinition> actions) {
+
+    }
+
+    /**
+     * @param action  mask, remove or goto
+     * @param capture the name of the instruction to rewrite
+     * @param value   the mask
+     */
+    public record ActionDefinition(String action, String capture, Long value) {
+
+    }
+}
@@ -0,0 +1,330 @@
+package net.oldscape.patcher.transformer;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.GeneratorAdapter;
+import org.objectweb.asm.commons.Method;
+import org.objectweb.asm.tree.ClassNode;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Generates the runtime support classes of {@link ProfilingInjector}, the profiler is equivalent to: <br/>
+ * <pre>
+ * public final class Profiler implements ProfilerMBean, Runnable {
+ *     private static final String[] NAMES = { ... };
+ *     private static final LongAdder[] CALLS = ...;
+ *     private static final LongAdder[] NANOS = ...;
+ *     private static final Long DUMP_INTERVAL = Long.getLong("oldscape.profiler.dump");
+ *
+ *     static {
+ *         try {
+ *             ManagementFactory.getPlatformMBeanServer().registerMBean(new Profiler(), new ObjectName("net.oldscape:type=Profiler"));
+ *         } catch (Exception ignored) {
+ *         }
+ *         if (DUMP_INTERVAL != null) {
+ *             var thread = new Thread(new Profiler(), "profiler-dump");
+ *             thread.setDaemon(true);
+ *             thread.start();
+ *         }
+ *     }
+ *
+ *     public static void enter(int id) { CALLS[id].increment(); }
+ *     public static void exit(long start, int id) { NANOS[id].add(System.nanoTime() - start); }
+ *     public String[] getCounters() { ... } // "name calls=... nanos=..." for each method
+ *     public void reset() { ... }
+ *     public void run() { ... } // prints the counters every DUMP_INTERVAL seconds
+ * }
+ * </pre>
+ * The classes are generated for Java 5 like the client classes, so they're written without stack map frames.
+ */
+final class ProfilerGenerator {
+
+    static final String PROFILER = "net/oldscape/profiler/Profiler";
+    static final String PROFILER_MBEAN = "net/oldscape/profiler/ProfilerMBean";
+
+    static final String ENTER_DESC = "(I)V";
+    static final String EXIT_DESC = "(JI)V";
+
+    private static final Type PROFILER_TYPE = Type.getObjectType(PROFILER);
+    private static final Type STRING_TYPE = Type.getType(String.class);
+    private static final Type STRING_ARRAY_TYPE = Type.getType(String[].class);
+    private static final Type ADDER_TYPE = Type.getObjectType("java/util/concurrent/atomic/LongAdder");
+    private static final Type ADDER_ARRAY_TYPE = Type.getType("[" + ADDER_TYPE.getDescriptor());
+    private static final Type LONG_TYPE = Type.getType(Long.class);
+    private static final Type BUILDER_TYPE = Type.getType(StringBuilder.class);
+    private static final Type SYSTEM_TYPE = Type.getType(System.class);
+    private static final Type THREAD_TYPE = Type.getType(Thread.class);
+
+    private static final Method CONSTRUCTOR = Method.getMethod("void <init> ()");
+    private static final Method GET_COUNTERS = Method.getMethod("String[] getCounters ()");
+    private static final Method RESET = Method.getMethod("void reset ()");
+
+    private ProfilerGenerator() {
+    }
+
+    static ClassNode generateMBean() {
+        var writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT | Opcodes.ACC_INTERFACE, PROFILER_MBEAN, null, "java/lang/Object", null);
+        writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, GET_COUNTERS.getName(), GET_COUNTERS.getDescriptor(), null, null).visitEnd();
+        writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, RESET.getName(), RESET.getDescriptor(), null, null).visitEnd();
+        writer.visitEnd();
+        return toClassNode(writer);
+    }
+
+    static ClassNode generateProfiler(List<String> names) {
+        var writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, PROFILER, null, "java/lang/Object",
+                new String[]{PROFILER_MBEAN, "java/lang/Runnable"});
+
+        var fieldAccess = Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL;
+        writer.visitField(fieldAccess, "NAMES", STRING_ARRAY_TYPE.getDescriptor(), null, null).visitEnd();
+        writer.visitField(fieldAccess, "CALLS", ADDER_ARRAY_TYPE.getDescriptor(), null, null).visitEnd();
+        writer.visitField(fieldAccess, "NANOS", ADDER_ARRAY_TYPE.getDescriptor(), null, null).visitEnd();
+        writer.visitField(fieldAccess, "DUMP_INTERVAL", LONG_TYPE.getDescriptor(), null, null).visitEnd();
+
+        generateClinit(writer, names);
+        generateConstructor(writer);
+        generateEnter(writer);
+        generateExit(writer);
+        generateGetCounters(writer);
+        generateReset(writer);
+        generateRun(writer);
+
+        writer.visitEnd();
+        return toClassNode(writer);
+    }
+
+    private static void generateClinit(ClassWriter writer, List<String> names) {
+        var method = new GeneratorAdapter(Opcodes.ACC_STATIC, Method.getMethod("void <clinit> ()"), null, null, writer);
+
+        method.push(names.size());
+        method.newArray(STRING_TYPE);
+
+        for (var i = 0; i < names.size(); i++) {
+            method.dup();
+            method.push(i);
+            method.push(names.get(i));
+            method.arrayStore(STRING_TYPE);
+        }
+        method.putStatic(PROFILER_TYPE, "NAMES", STRING_ARRAY_TYPE);
+
+        newAdders(method, names.size(), "CALLS");
+        newAdders(method, names.size(), "NANOS");
+
+        method.push("oldscape.profiler.dump");
+        method.invokeStatic(LONG_TYPE, Method.getMethod("Long getLong (String)"));
+        method.putStatic(PROFILER_TYPE, "DUMP_INTERVAL", LONG_TYPE);
+
+        // the platform MBean server may be unavailable, the counters keep working without it
+        var tryStart = method.mark();
+        method.invokeStatic(Type.getObjectType("java/lang/management/ManagementFactory"), Method.getMethod("javax.management.MBeanServer getPlatformMBeanServer ()"));
+        newProfiler(method);
+        var objectNameType = Type.getObjectType("javax/management/ObjectName");
+        method.newInstance(objectNameType);
+        method.dup();
+        method.push("net.oldscape:type=Profiler");
+        method.invokeConstructor(objectNameType, Method.getMethod("void <init> (String)"));
+        method.invokeInterface(Type.getObjectType("javax/management/MBeanServer"),
+                Method.getMethod("javax.management.ObjectInstance registerMBean (Object, javax.management.ObjectName)"));
+        method.pop();
+        var tryEnd = method.mark();
+        var registered = method.newLabel();
+        method.goTo(registered);
+        method.catchException(tryStart, tryEnd, Type.getType(Exception.class));
+        method.pop();
+        method.mark(registered);
+
+        var noDump = method.newLabel();
+        method.getStatic(PROFILER_TYPE, "DUMP_INTERVAL", LONG_TYPE);
+        method.ifNull(noDump);
+        method.newInstance(THREAD_TYPE);
+        method.dup();
+        newProfiler(method);
+        method.push("profiler-dump");
+        method.invokeConstructor(THREAD_TYPE, Method.getMethod("void <init> (Runnable, String)"));
+        method.dup();
+        method.push(true);
+        method.invokeVirtual(THREAD_TYPE, Method.getMethod("void setDaemon (boolean)"));
+        method.invokeVirtual(THREAD_TYPE, Method.getMethod("void start ()"));
+        method.mark(noDump);
+
+        method.returnValue();
+        method.endMethod();
+    }
+
+    private static void newAdders(GeneratorAdapter method, int count, String field) {
+        method.push(count);
+        method.newArray(ADDER_TYPE);
+        method.putStatic(PROFILER_TYPE, field, ADDER_ARRAY_TYPE);
+
+        forEachCounter(method, index -> {
+            method.getStatic(PROFILER_TYPE, field, ADDER_ARRAY_TYPE);
+            method.loadLocal(index);
+            method.newInstance(ADDER_TYPE);
+            method.dup();
+            method.invokeConstructor(ADDER_TYPE, CONSTRUCTOR);
+            method.arrayStore(ADDER_TYPE);
+        });
+    }
+
+    private static void newProfiler(GeneratorAdapter method) {
+        method.newInstance(PROFILER_TYPE);
+        method.dup();
+        method.invokeConstructor(PROFILER_TYPE, CONSTRUCTOR);
+    }
+
+    private static void generateConstructor(ClassWriter writer) {
+        var method = new GeneratorAdapter(Opcodes.ACC_PUBLIC, CONSTRUCTOR, null, null, writer);
+        method.loadThis();
+        method.invokeConstructor(Type.getType(Object.class), CONSTRUCTOR);
+        method.returnValue();
+        method.endMethod();
+    }
+
+    private static void generateEnter(ClassWriter writer) {
+        var method = new GeneratorAdapter(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, new Method("enter", ENTER_DESC), null, null, writer);
+        method.getStatic(PROFILER_TYPE, "CALLS", ADDER_ARRAY_TYPE);
+        method.loadArg(0);
+        method.arrayLoad(ADDER_TYPE);
+        method.invokeVirtual(ADDER_TYPE, Method.getMethod("void increment ()"));
+        method.returnValue();
+        method.endMethod();
+    }
+
+    private static void generateExit(ClassWriter writer) {
+        var method = new GeneratorAdapter(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, new Method("exit", EXIT_DESC), null, null, writer);
+        method.getStatic(PROFILER_TYPE, "NANOS", ADDER_ARRAY_TYPE);
+        method.loadArg(1);
+        method.arrayLoad(ADDER_TYPE);
+        method.invokeStatic(SYSTEM_TYPE, Method.getMethod("long nanoTime ()"));
+        method.loadArg(0);
+        method.math(GeneratorAdapter.SUB, Type.LONG_TYPE);
+        method.invokeVirtual(ADDER_TYPE, Method.getMethod("void add (long)"));
+        method.returnValue();
+        method.endMethod();
+    }
+
+    private static void generateGetCounters(ClassWriter writer) {
+        var method = new GeneratorAdapter(Opcodes.ACC_PUBLIC, GET_COUNTERS, null, null, writer);
+        var counters = method.newLocal(STRING_ARRAY_TYPE);
+        method.getStatic(PROFILER_TYPE, "NAMES", STRING_ARRAY_TYPE);
+        method.arrayLength();
+        method.newArray(STRING_TYPE);
+        method.storeLocal(counters);
+
+        forEachCounter(method, index -> {
+            method.loadLocal(counters);
+            method.loadLocal(index);
+            method.newInstance(BUILDER_TYPE);
+            method.dup();
+            method.invokeConstructor(BUILDER_TYPE, CONSTRUCTOR);
+            method.getStatic(PROFILER_TYPE, "NAMES", STRING_ARRAY_TYPE);
+            method.loadLocal(index);
+            method.arrayLoad(STRING_TYPE);
+            appendString(method);
+            method.push(" calls=");
+            appendString(method);
+            appendSum(method, "CALLS", index);
+            method.push(" nanos=");
+            appendString(method);
+            appendSum(method, "NANOS", index);
+            method.invokeVirtual(BUILDER_TYPE, Method.getMethod("String toString ()"));
+            method.arrayStore(STRING_TYPE);
+        });
+        method.loadLocal(counters);
+        method.returnValue();
+        method.endMethod();
+    }
+
+    private static void appendString(GeneratorAdapter method) {
+        method.invokeVirtual(BUILDER_TYPE, Method.getMethod("StringBuilder append (String)"));
+    }
+
+    private static void appendSum(GeneratorAdapter method, String field, int index) {
+        method.getStatic(PROFILER_TYPE, field, ADDER_ARRAY_TYPE);
+        method.loadLocal(index);
+        method.arrayLoad(ADDER_TYPE);
+        method.invokeVirtual(ADDER_TYPE, Method.getMethod("long sum ()"));
+        method.invokeVirtual(BUILDER_TYPE, Method.getMethod("StringBuilder append (long)"));
+    }
+
+    private static void generateReset(ClassWriter writer) {
+        var method = new GeneratorAdapter(Opcodes.ACC_PUBLIC, RESET, null, null, writer);
+
+        forEachCounter(method, index -> {
+            for (var field : List.of("CALLS", "NANOS")) {
+                method.getStatic(PROFILER_TYPE, field, ADDER_ARRAY_TYPE);
+                method.loadLocal(index);
+                method.arrayLoad(ADDER_TYPE);
+                method.invokeVirtual(ADDER_TYPE, RESET);
+            }
+        });
+        method.returnValue();
+        method.endMethod();
+    }
+
+    private static void generateRun(ClassWriter writer) {
+        var method = new GeneratorAdapter(Opcodes.ACC_PUBLIC, Method.getMethod("void run ()"), null, null, writer);
+        var out = Type.getType(PrintStream.class);
+        var counters = method.newLocal(STRING_ARRAY_TYPE);
+
+        // stops when interrupted
+        var tryStart = method.mark();
+        var loop = method.mark();
+        method.getStatic(PROFILER_TYPE, "DUMP_INTERVAL", LONG_TYPE);
+        method.invokeVirtual(LONG_TYPE, Method.getMethod("long longValue ()"));
+        method.push(1000L);
+        method.math(GeneratorAdapter.MUL, Type.LONG_TYPE);
+        method.invokeStatic(THREAD_TYPE, Method.getMethod("void sleep (long)"));
+
+        method.loadThis();
+        method.invokeVirtual(PROFILER_TYPE, GET_COUNTERS);
+        method.storeLocal(counters);
+
+        forEachCounter(method, index -> {
+            method.getStatic(SYSTEM_TYPE, "out", out);
+            method.loadLocal(counters);
+            method.loadLocal(index);
+            method.arrayLoad(STRING_TYPE);
+            method.invokeVirtual(out, Method.getMethod("void println (String)"));
+        });
+        method.goTo(loop);
+        var tryEnd = method.mark();
+        method.catchException(tryStart, tryEnd, Type.getType(InterruptedException.class));
+        method.pop();
+        method.returnValue();
+        method.endMethod();
+    }
+
+    /**
+     * Emits a loop over the counter indices, the body gets the local holding the index.
+     */
+    private static void forEachCounter(GeneratorAdapter method, IntConsumer body) {
+        var index = method.newLocal(Type.INT_TYPE);
+        var condition = method.newLabel();
+        var end = method.newLabel();
+
+        method.push(0);
+        method.storeLocal(index);
+        method.mark(condition);
+        method.loadLocal(index);
+        method.getStatic(PROFILER_TYPE, "NAMES", STRING_ARRAY_TYPE);
+        method.arrayLength();
+        method.ifICmp(GeneratorAdapter.GE, end);
+        body.accept(index);
+        method.iinc(index, 1);
+        method.goTo(condition);
+        method.mark(end);
+    }
+
+    private static ClassNode toClassNode(ClassWriter writer) {
+        var classNode = new ClassNode();
+        new ClassReader(writer.toByteArray()).accept(classNode, 0);
+        return classNode;
+    }
+}
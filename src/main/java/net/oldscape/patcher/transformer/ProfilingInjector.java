@@ -0,0 +1,152 @@
+package net.oldscape.patcher.transformer;
+
+import net.oldscape.patcher.Transformer;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.SimpleRemapper;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static net.oldscape.patcher.AsmUtils.nextFreeLocal;
+import static net.oldscape.patcher.AsmUtils.pushInt;
+import static net.oldscape.patcher.transformer.ProfilerGenerator.ENTER_DESC;
+import static net.oldscape.patcher.transformer.ProfilerGenerator.EXIT_DESC;
+import static net.oldscape.patcher.transformer.ProfilerGenerator.PROFILER;
+
+/**
+ * Counts the calls to the selected methods, and optionally the time spent in them, through a generated profiler class
+ * added to the jar: <br/>
+ * <pre>
+ * Profiler.enter(7);
+ * long start = System.nanoTime();
+ * ...
+ * Profiler.exit(start, 7);
+ * return;
+ * </pre>
+ * The counters are {@link java.util.concurrent.atomic.LongAdder}s so concurrent callers don't contend. They can be
+ * read through the <code>net.oldscape:type=Profiler</code> MBean, or printed every N seconds by running the client
+ * with <code>-Doldscape.profiler.dump=N</code>. Time spent in calls completing with an exception isn't counted. <br/>
+ * Selectors are formatted as <code>Class.method</code>, optionally followed by the method descriptor, using either
+ * the source jar or the mappings.toml names, like <code>Packet.g1</code> or <code>tc.b(Z)I</code>. A class alone
+ * selects all its methods.
+ */
+public class ProfilingInjector implements Transformer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProfilingInjector.class);
+
+    private final List<String> selectors;
+    private final Map<String, String> mappings;
+    private final boolean timing;
+
+    private ProfilingInjector(List<String> selectors, Map<String, String> mappings, boolean timing) {
+        this.selectors = selectors;
+        this.mappings = mappings;
+        this.timing = timing;
+    }
+
+    public static ProfilingInjector create(List<String> selectors, Map<String, String> mappings, boolean timing) {
+        return new ProfilingInjector(List.copyOf(selectors), mappings, timing);
+    }
+
+    @Override
+    public void transform(Map<String, ClassNode> classNodes) {
+        var remapper = new SimpleRemapper(mappings);
+        var classAliases = new HashMap<String, String>();
+
+        for (var mapping : mappings.entrySet()) {
+            if (!mapping.getKey().contains(".")) {
+                classAliases.put(mapping.getValue(), mapping.getKey());
+            }
+        }
+        var names = new ArrayList<String>();
+        var instrumented = new HashSet<MethodNode>();
+
+        for (var selector : selectors) {
+            var memberStart = selector.indexOf('.');
+            var className = memberStart == -1 ? selector : selector.substring(0, memberStart);
+            var classNode = classNodes.get(classAliases.getOrDefault(className, className));
+
+            if (classNode == null) {
+                LOGGER.warn("No class found for profiling selector {}", selector);
+                continue;
+            }
+            var member = memberStart == -1 ? null : selector.substring(memberStart + 1);
+            var selected = 0;
+
+            for (var methodNode : classNode.methods) {
+                if ((methodNode.access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0) {
+                    continue;
+                }
+                var mappedName = remapper.mapMethodName(classNode.name, methodNode.name, methodNode.desc);
+                var mappedDesc = remapper.mapMethodDesc(methodNode.desc);
+
+                if (member != null && !matches(member, methodNode.name, methodNode.desc) && !matches(member, mappedName, mappedDesc)) {
+                    continue;
+                }
+                selected++;
+
+                // already selected through another selector
+                if (!instrumented.add(methodNode)) {
+                    continue;
+                }
+                instrument(methodNode, names.size());
+                names.add(remapper.mapType(classNode.name) + "." + mappedName + mappedDesc);
+            }
+
+            if (selected == 0) {
+                LOGGER.warn("No method found for profiling selector {}", selector);
+            }
+        }
+        classNodes.put(ProfilerGenerator.PROFILER_MBEAN, ProfilerGenerator.generateMBean());
+        classNodes.put(PROFILER, ProfilerGenerator.generateProfiler(names));
+
+        LOGGER.info("Injected profiling counters into {} methods{}", names.size(), timing ? " with timing" : "");
+    }
+
+    private boolean matches(String member, String name, String desc) {
+        return member.equals(name) || member.equals(name + desc);
+    }
+
+    private void instrument(MethodNode methodNode, int id) {
+        var start = timing ? nextFreeLocal(methodNode) : -1;
+        var entry = new InsnList();
+        entry.add(pushInt(id));
+        entry.add(new MethodInsnNode(Opcodes.INVOKESTATIC, PROFILER, "enter", ENTER_DESC));
+
+        if (timing) {
+            entry.add(new MethodInsnNode(Opcodes.INVOKESTATIC, "java/lang/System", "nanoTime", "()J"));
+            entry.add(new VarInsnNode(Opcodes.LSTORE, start));
+
+            for (var insn : methodNode.instructions.toArray()) {
+                if (isReturn(insn)) {
+                    var exit = new InsnList();
+                    exit.add(new VarInsnNode(Opcodes.LLOAD, start));
+                    exit.add(pushInt(id));
+                    exit.add(new MethodInsnNode(Opcodes.INVOKESTATIC, PROFILER, "exit", EXIT_DESC));
+                    methodNode.instructions.insertBefore(insn, exit);
+                }
+            }
+            methodNode.maxLocals = Math.max(methodNode.maxLocals, start + Type.LONG_TYPE.getSize());
+        }
+        // the exit call is made with the return value still on the stack
+        methodNode.maxStack = timing ? methodNode.maxStack + 3 : Math.max(methodNode.maxStack, 1);
+        methodNode.instructions.insert(entry);
+    }
+
+    private boolean isReturn(AbstractInsnNode insn) {
+        return insn instanceof InsnNode && insn.getOpcode() >= Opcodes.IRETURN && insn.getOpcode() <= Opcodes.RETURN;
+    }
+}
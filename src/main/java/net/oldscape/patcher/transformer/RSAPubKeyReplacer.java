@@ -1,7 +1,8 @@
 package net.oldscape.patcher.transformer;
 
 import net.oldscape.patcher.AsmUtils;
-import net.oldscape.patcher.Transformer;
+import net.oldscape.patcher.ClassIndex;
+import net.oldscape.patcher.ClassTransformer;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.FieldInsnNode;
@@ -11,7 +12,7 @@ import java.math.BigInteger;
 import java.security.spec.RSAPublicKeySpec;
 import java.util.Map;
 
-public class RSAPubKeyReplacer implements Transformer {
+public class RSAPubKeyReplacer implements ClassTransformer {
 
     private final RSAPublicKeySpec replacement;
     private final RSAKeyFields keyFields;
@@ -25,16 +26,39 @@ public class RSAPubKeyReplacer implements Transformer {
         return new RSAPubKeyReplacer(replacement, keyFields);
     }
 
+    @Override
+    public void prepare(ClassIndex index) {
+        if (!index.contains(keyFields.modulusClass())) {
+            throw new IllegalStateException("Could not find modulus class " + keyFields.modulusClass());
+        }
+
+        if (!index.contains(keyFields.exponentClass())) {
+            throw new IllegalStateException("Could not find exponent class " + keyFields.exponentClass());
+        }
+    }
+
     @Override
     public void transform(Map<String, ClassNode> classNodes) {
-        replaceBigInteger(classNodes.get(keyFields.modulusClass()), keyFields.modulusField(), replacement.getModulus());
-        replaceBigInteger(classNodes.get(keyFields.exponentClass()), keyFields.exponentField(), replacement.getPublicExponent());
+        // only looks up the key classes so it can run on top of a copy-on-write overlay without copying the whole jar
+        transform(classNodes.get(keyFields.modulusClass()));
+
+        if (!keyFields.exponentClass().equals(keyFields.modulusClass())) {
+            transform(classNodes.get(keyFields.exponentClass()));
+        }
     }
 
-    private void replaceBigInteger(ClassNode classNode, String field, BigInteger replacement) {
-        if (classNode == null) {
-            throw new IllegalStateException("classNode is null");
+    @Override
+    public void transform(ClassNode classNode) {
+        if (classNode.name.equals(keyFields.modulusClass())) {
+            replaceBigInteger(classNode, keyFields.modulusField(), replacement.getModulus());
+        }
+
+        if (classNode.name.equals(keyFields.exponentClass())) {
+            replaceBigInteger(classNode, keyFields.exponentField(), replacement.getPublicExponent());
         }
+    }
+
+    private void replaceBigInteger(ClassNode classNode, String field, BigInteger replacement) {
         var clinit = AsmUtils.findClinit(classNode);
 
         if (clinit == null) {
@@ -0,0 +1,342 @@
+package net.oldscape.patcher.transformer;
+
+import net.oldscape.patcher.ClassTransformer;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.BasicInterpreter;
+import org.objectweb.asm.tree.analysis.BasicVerifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static net.oldscape.patcher.AsmUtils.codeSize;
+
+/**
+ * Cleans up the control flow left behind by {@link RemoveImpossibleJumps}, repeating until nothing changes: <br/>
+ * - Jumps to a <code>goto</code> are redirected to its target and jumps to a <code>return</code> become the return;<br/>
+ * - Instructions the control flow never reaches are removed, with the try/catch blocks left covering nothing;<br/>
+ * - Jumps to the next instruction are removed;<br/>
+ * - A block only entered through a single <code>goto</code> is moved in place of that <code>goto</code>.<br/>
+ * <p>
+ * Every method is verified after cleaning, the original method is kept if it doesn't verify.
+ */
+public class RemoveDeadCode implements ClassTransformer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RemoveDeadCode.class);
+
+    private static final int MAX_ROUNDS = 64;
+
+    private int cleanedMethods;
+    private int savedBytes;
+
+    @Override
+    public void finish() {
+        LOGGER.info("Removed {} bytes of dead code and jumps from {} methods", savedBytes, cleanedMethods);
+    }
+
+    @Override
+    public void transform(ClassNode classNode) {
+        for (var i = 0; i < classNode.methods.size(); i++) {
+            var methodNode = classNode.methods.get(i);
+
+            if (methodNode.instructions.size() == 0) {
+                continue;
+            }
+            var cleaned = clean(classNode, methodNode);
+
+            if (cleaned != null) {
+                classNode.methods.set(i, cleaned);
+            }
+        }
+    }
+
+    /**
+     * Cleans a copy of the method.
+     *
+     * @return the cleaned copy or null if nothing could be removed
+     */
+    private MethodNode clean(ClassNode owner, MethodNode original) {
+        var methodNode = new MethodNode(original.access, original.name, original.desc, original.signature, original.exceptions.toArray(String[]::new));
+        original.accept(methodNode);
+
+        try {
+            var rounds = 0;
+            while (rounds++ < MAX_ROUNDS && (threadJumps(methodNode) | removeUnreachable(owner, methodNode) | removeRedundantJumps(methodNode) | mergeBlocks(methodNode))) {
+                // repeat until nothing changes
+            }
+            new Analyzer<>(new BasicVerifier()).analyze(owner.name, methodNode);
+        } catch (AnalyzerException e) {
+            LOGGER.warn("Keeping {}.{}{} as is, cleaning failed: {}", owner.name, original.name, original.desc, e.getMessage());
+            return null;
+        }
+        var before = codeSize(original);
+        var after = codeSize(methodNode);
+
+        if (after >= before) {
+            return null;
+        }
+        LOGGER.debug("{}.{}{}: {} -> {} bytes", owner.name, original.name, original.desc, before, after);
+        cleanedMethods++;
+        savedBytes += before - after;
+        return methodNode;
+    }
+
+    private boolean threadJumps(MethodNode methodNode) {
+        var changed = false;
+
+        for (var insn : methodNode.instructions.toArray()) {
+            if (insn instanceof JumpInsnNode jumpInsn) {
+                var target = resolve(jumpInsn.label);
+                changed |= target != jumpInsn.label;
+                jumpInsn.label = target;
+
+                var targetInsn = nextReal(target);
+                if (jumpInsn.getOpcode() == Opcodes.GOTO && targetInsn != null && isReturn(targetInsn.getOpcode())) {
+                    methodNode.instructions.set(jumpInsn, new InsnNode(targetInsn.getOpcode()));
+                    changed = true;
+                }
+            } else if (insn instanceof TableSwitchInsnNode switchInsn) {
+                changed |= threadSwitch(switchInsn.labels);
+                var target = resolve(switchInsn.dflt);
+                changed |= target != switchInsn.dflt;
+                switchInsn.dflt = target;
+            } else if (insn instanceof LookupSwitchInsnNode switchInsn) {
+                changed |= threadSwitch(switchInsn.labels);
+                var target = resolve(switchInsn.dflt);
+                changed |= target != switchInsn.dflt;
+                switchInsn.dflt = target;
+            }
+        }
+        return changed;
+    }
+
+    private boolean threadSwitch(List<LabelNode> labels) {
+        var changed = false;
+
+        for (var i = 0; i < labels.size(); i++) {
+            var target = resolve(labels.get(i));
+            changed |= target != labels.get(i);
+            labels.set(i, target);
+        }
+        return changed;
+    }
+
+    /**
+     * Follows the chain of <code>goto</code> starting at the given label.
+     */
+    private LabelNode resolve(LabelNode label) {
+        var visited = new HashSet<LabelNode>();
+        var current = label;
+
+        while (visited.add(current)) {
+            if (!(nextReal(current) instanceof JumpInsnNode jumpInsn) || jumpInsn.getOpcode() != Opcodes.GOTO) {
+                break;
+            }
+            current = jumpInsn.label;
+        }
+        return current;
+    }
+
+    private boolean removeUnreachable(ClassNode owner, MethodNode methodNode) throws AnalyzerException {
+        var instructions = methodNode.instructions;
+        var frames = new Analyzer<>(new BasicInterpreter()).analyze(owner.name, methodNode);
+        var insns = instructions.toArray();
+        var changed = false;
+
+        for (var i = 0; i < insns.length; i++) {
+            if (frames[i] == null && !(insns[i] instanceof LabelNode)) {
+                instructions.remove(insns[i]);
+                changed = true;
+            }
+        }
+        changed |= methodNode.tryCatchBlocks.removeIf(this::isEmpty);
+        return changed;
+    }
+
+    private boolean isEmpty(TryCatchBlockNode tryCatchBlock) {
+        var real = nextReal(tryCatchBlock.start);
+
+        for (AbstractInsnNode insn = tryCatchBlock.start; insn != null && insn != tryCatchBlock.end; insn = insn.getNext()) {
+            if (insn == real) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes jumps to the instruction right after them, a conditional jump still has to pop its operands.
+     */
+    private boolean removeRedundantJumps(MethodNode methodNode) {
+        var instructions = methodNode.instructions;
+        var changed = false;
+
+        for (var insn : instructions.toArray()) {
+            if (!(insn instanceof JumpInsnNode jumpInsn) || nextReal(jumpInsn.getNext()) != nextReal(jumpInsn.label)) {
+                continue;
+            }
+            switch (jumpInsn.getOpcode()) {
+                case Opcodes.GOTO -> instructions.remove(jumpInsn);
+                case Opcodes.IFEQ, Opcodes.IFNE, Opcodes.IFLT, Opcodes.IFGE, Opcodes.IFGT, Opcodes.IFLE, Opcodes.IFNULL, Opcodes.IFNONNULL ->
+                        instructions.set(jumpInsn, new InsnNode(Opcodes.POP));
+                case Opcodes.IF_ICMPEQ, Opcodes.IF_ICMPNE, Opcodes.IF_ICMPLT, Opcodes.IF_ICMPGE, Opcodes.IF_ICMPGT, Opcodes.IF_ICMPLE, Opcodes.IF_ACMPEQ, Opcodes.IF_ACMPNE ->
+                        instructions.set(jumpInsn, new InsnNode(Opcodes.POP2));
+                default -> {
+                    continue;
+                }
+            }
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Moves a block in place of the <code>goto</code> jumping to it, when that <code>goto</code> is the only way into
+     * the block and both are covered by the same try/catch blocks.
+     */
+    private boolean mergeBlocks(MethodNode methodNode) {
+        var instructions = methodNode.instructions;
+        var references = countReferences(methodNode);
+        var changed = false;
+
+        for (var insn : instructions.toArray()) {
+            if (!(insn instanceof JumpInsnNode jumpInsn) || jumpInsn.getOpcode() != Opcodes.GOTO || references.get(jumpInsn.label) != 1) {
+                continue;
+            }
+            var previous = previousReal(jumpInsn.label);
+
+            if (previous == null || !isTerminator(previous.getOpcode())) {
+                continue;
+            }
+            var block = collectBlock(jumpInsn.label, jumpInsn, references);
+
+            if (block == null || !sameCoverage(methodNode, jumpInsn, block)) {
+                continue;
+            }
+
+            for (var blockInsn : block) {
+                instructions.remove(blockInsn);
+                instructions.insertBefore(jumpInsn, blockInsn);
+            }
+            instructions.remove(jumpInsn);
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Collects the instructions from the label up to the first instruction that doesn't fall through.
+     *
+     * @return the block or null if the block is entered by other jumps or contains the jump to it
+     */
+    private List<AbstractInsnNode> collectBlock(LabelNode start, JumpInsnNode jumpInsn, Map<LabelNode, Integer> references) {
+        var block = new ArrayList<AbstractInsnNode>();
+
+        for (AbstractInsnNode insn = start; insn != null; insn = insn.getNext()) {
+            if (insn == jumpInsn || (insn != start && insn instanceof LabelNode label && references.containsKey(label))) {
+                return null;
+            }
+            block.add(insn);
+
+            if (isTerminator(insn.getOpcode())) {
+                return block;
+            }
+        }
+        return null;
+    }
+
+    private boolean sameCoverage(MethodNode methodNode, AbstractInsnNode jumpInsn, List<AbstractInsnNode> block) {
+        var instructions = methodNode.instructions;
+
+        for (var tryCatchBlock : methodNode.tryCatchBlocks) {
+            var start = instructions.indexOf(tryCatchBlock.start);
+            var end = instructions.indexOf(tryCatchBlock.end);
+            var jumpIndex = instructions.indexOf(jumpInsn);
+            var jumpCovered = jumpIndex >= start && jumpIndex < end;
+
+            for (var insn : block) {
+                var index = instructions.indexOf(insn);
+
+                if ((index >= start && index < end) != jumpCovered) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private Map<LabelNode, Integer> countReferences(MethodNode methodNode) {
+        var references = new HashMap<LabelNode, Integer>();
+
+        for (var insn : methodNode.instructions) {
+            if (insn instanceof JumpInsnNode jumpInsn) {
+                references.merge(jumpInsn.label, 1, Integer::sum);
+            } else if (insn instanceof TableSwitchInsnNode switchInsn) {
+                switchInsn.labels.forEach(label -> references.merge(label, 1, Integer::sum));
+                references.merge(switchInsn.dflt, 1, Integer::sum);
+            } else if (insn instanceof LookupSwitchInsnNode switchInsn) {
+                switchInsn.labels.forEach(label -> references.merge(label, 1, Integer::sum));
+                references.merge(switchInsn.dflt, 1, Integer::sum);
+            }
+        }
+
+        for (var tryCatchBlock : methodNode.tryCatchBlocks) {
+            references.merge(tryCatchBlock.start, 1, Integer::sum);
+            references.merge(tryCatchBlock.end, 1, Integer::sum);
+            references.merge(tryCatchBlock.handler, 1, Integer::sum);
+        }
+
+        if (methodNode.localVariables != null) {
+            for (var localVariable : methodNode.localVariables) {
+                references.merge(localVariable.start, 1, Integer::sum);
+                references.merge(localVariable.end, 1, Integer::sum);
+            }
+        }
+        return references;
+    }
+
+    private AbstractInsnNode nextReal(AbstractInsnNode insn) {
+        var current = insn;
+
+        while (current != null && current.getOpcode() == -1) {
+            current = current.getNext();
+        }
+        return current;
+    }
+
+    private AbstractInsnNode previousReal(AbstractInsnNode insn) {
+        var current = insn.getPrevious();
+
+        while (current != null && current.getOpcode() == -1) {
+            current = current.getPrevious();
+        }
+        return current;
+    }
+
+    private boolean isReturn(int opcode) {
+        return opcode >= Opcodes.IRETURN && opcode <= Opcodes.RETURN;
+    }
+
+    private boolean isTerminator(int opcode) {
+        return isReturn(opcode)
+                || opcode == Opcodes.GOTO
+                || opcode == Opcodes.ATHROW
+                || opcode == Opcodes.TABLESWITCH
+                || opcode == Opcodes.LOOKUPSWITCH;
+    }
+}
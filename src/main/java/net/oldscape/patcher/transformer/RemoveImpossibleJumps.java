@@ -1,6 +1,6 @@
 package net.oldscape.patcher.transformer;
 
-import net.oldscape.patcher.Transformer;
+import net.oldscape.patcher.ClassTransformer;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.FieldInsnNode;
@@ -10,11 +10,9 @@ import org.objectweb.asm.tree.VarInsnNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Map;
-
 /**
- * Removes impossible jump conditions, there's two variations to this obfuscation: <br/>
- * - The first is where the constant field is loaded into a local variable and then the local is used in jump conditions:
+ * Removes impossible jump conditions where the constant field is loaded into a local variable and then the local is
+ * used in jump conditions:
  * <pre>
  * getstatic client.ob:boolean
  * istore 2
@@ -22,23 +20,17 @@ import java.util.Map;
  * iload 2
  * ifeq L10
  * </pre>
- * <p>
- * - The second where the constant field is used directly in the jump condition:
- * <pre>
- * getstatic client.ob:boolean
- * ifeq L9
- * </pre>
- * The jump always point to a random label of the method's body also the local var idx is always the last.
+ * The jump always point to a random label of the method's body also the local var idx is always the last. <br/>
+ * The other variation, where the constant field is used directly in the jump condition, is the impossible-jump
+ * pattern of patterns.toml.
  */
-public class RemoveImpossibleJumps implements Transformer {
+public class RemoveImpossibleJumps implements ClassTransformer {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RemoveImpossibleJumps.class);
 
     @Override
-    public void transform(Map<String, ClassNode> classNodes) {
-        for (var classNode : classNodes.values()) {
-            classNode.methods.forEach(this::transform);
-        }
+    public void transform(ClassNode classNode) {
+        classNode.methods.forEach(this::transform);
     }
 
     private void transform(MethodNode methodNode) {
@@ -50,9 +42,6 @@ public class RemoveImpossibleJumps implements Transformer {
 
                 if (next instanceof VarInsnNode varInsn) {
                     cleanLocalVar(methodNode, varInsn.var);
-                } else if (next instanceof JumpInsnNode jumpInsn) {
-                    instructions.remove(fieldInsnNode);
-                    jumpInsn.setOpcode(Opcodes.GOTO);
                 } else {
                     LOGGER.warn("Found dummy load but we don't know how to handle {} instructions", next.getClass().getSimpleName());
                 }
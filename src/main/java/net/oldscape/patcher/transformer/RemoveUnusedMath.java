@@ -1,6 +1,6 @@
 package net.oldscape.patcher.transformer;
 
-import net.oldscape.patcher.Transformer;
+import net.oldscape.patcher.ClassTransformer;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
 import org.objectweb.asm.tree.InsnList;
@@ -11,7 +11,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 
 import static org.objectweb.asm.Opcodes.BIPUSH;
 import static org.objectweb.asm.Opcodes.IADD;
@@ -38,13 +37,11 @@ import static org.objectweb.asm.Opcodes.ISUB;
  * <p>
  * These math expressions are always either 5 or 7 instructions long.
  */
-public class RemoveUnusedMath implements Transformer {
+public class RemoveUnusedMath implements ClassTransformer {
 
     @Override
-    public void transform(Map<String, ClassNode> classNodes) {
-        for (var classNode : classNodes.values()) {
-            classNode.methods.forEach(this::transform);
-        }
+    public void transform(ClassNode classNode) {
+        classNode.methods.forEach(this::transform);
     }
 
     private void transform(MethodNode methodNode) {
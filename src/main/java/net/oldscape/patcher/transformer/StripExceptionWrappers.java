@@ -0,0 +1,194 @@
+package net.oldscape.patcher.transformer;
+
+import net.oldscape.patcher.ClassTransformer;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static net.oldscape.patcher.AsmUtils.FREQ_INLINE_SIZE;
+import static net.oldscape.patcher.AsmUtils.MAX_INLINE_SIZE;
+import static net.oldscape.patcher.AsmUtils.codeSize;
+
+/**
+ * Removes the obfuscator's RuntimeException wrapper, nearly every method body is wrapped like: <br/>
+ * <pre>
+ * try {
+ *     ...
+ * } catch (RuntimeException ex) {
+ *     throw ld.a(ex, "he.a(" + arg0 + ',' + arg1 + ')');
+ * }
+ * </pre>
+ * The handler is recognized as straight-line code building a string and ending with a static
+ * <code>(Throwable, String)</code> call whose result is thrown, both the handler and its exception table entries are
+ * removed. The exceptions are then thrown as is instead of being reported through the helper.
+ */
+public class StripExceptionWrappers implements ClassTransformer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StripExceptionWrappers.class);
+
+    private static final String RUNTIME_EXCEPTION = "java/lang/RuntimeException";
+
+    private final Set<String> exempt;
+
+    private int strippedMethods;
+    private int savedBytes;
+    private int nowInlineable;
+    private int nowFreqInlineable;
+
+    private StripExceptionWrappers(Set<String> exempt) {
+        this.exempt = exempt;
+    }
+
+    public static StripExceptionWrappers create(WrapperConfig config) {
+        return new StripExceptionWrappers(Set.copyOf(config.exempt()));
+    }
+
+    @Override
+    public void finish() {
+        LOGGER.info("Stripped the exception wrapper of {} methods saving {} bytes, {} now fit MaxInlineSize and {} now fit FreqInlineSize",
+                strippedMethods, savedBytes, nowInlineable, nowFreqInlineable);
+    }
+
+    @Override
+    public void transform(ClassNode classNode) {
+        for (var methodNode : classNode.methods) {
+            if (exempt.contains(classNode.name + "." + methodNode.name + methodNode.desc)) {
+                continue;
+            }
+            var before = codeSize(methodNode);
+
+            if (!strip(methodNode)) {
+                continue;
+            }
+            var after = codeSize(methodNode);
+            LOGGER.debug("{}.{}{}: {} -> {} bytes", classNode.name, methodNode.name, methodNode.desc, before, after);
+
+            strippedMethods++;
+            savedBytes += before - after;
+
+            if (before > MAX_INLINE_SIZE && after <= MAX_INLINE_SIZE) {
+                nowInlineable++;
+            }
+
+            if (before > FREQ_INLINE_SIZE && after <= FREQ_INLINE_SIZE) {
+                nowFreqInlineable++;
+            }
+        }
+    }
+
+    /**
+     * Removes the wrapper handlers of the method.
+     *
+     * @return whether any handler was removed
+     */
+    public static boolean strip(MethodNode methodNode) {
+        var stripped = false;
+
+        for (var tryCatchBlock : List.copyOf(methodNode.tryCatchBlocks)) {
+            if (!methodNode.tryCatchBlocks.contains(tryCatchBlock) || !RUNTIME_EXCEPTION.equals(tryCatchBlock.type)) {
+                continue;
+            }
+            var handler = wrapperHandler(methodNode, tryCatchBlock.handler);
+
+            if (handler == null) {
+                continue;
+            }
+            methodNode.tryCatchBlocks.removeIf(block -> block.handler == tryCatchBlock.handler);
+            handler.forEach(methodNode.instructions::remove);
+            stripped = true;
+        }
+        return stripped;
+    }
+
+    /**
+     * Collects the wrapper handler instructions starting at the given label.
+     *
+     * @return the handler instructions or null if the handler doesn't have the wrapper shape
+     */
+    private static List<AbstractInsnNode> wrapperHandler(MethodNode methodNode, LabelNode handlerLabel) {
+        var handlerUsers = methodNode.tryCatchBlocks.stream()
+                                                    .filter(block -> block.handler == handlerLabel)
+                                                    .toList();
+
+        if (!handlerUsers.stream().allMatch(block -> RUNTIME_EXCEPTION.equals(block.type))) {
+            return null;
+        }
+        var referenced = referencedLabels(methodNode);
+        var handler = new ArrayList<AbstractInsnNode>();
+        var buildsMessage = false;
+
+        for (var insn = handlerLabel.getNext(); insn != null; insn = insn.getNext()) {
+            if (insn instanceof LabelNode label && referenced.contains(label)) {
+                return null;
+            }
+
+            if (insn instanceof JumpInsnNode || insn instanceof TableSwitchInsnNode || insn instanceof LookupSwitchInsnNode) {
+                return null;
+            }
+            handler.add(insn);
+            buildsMessage |= insn instanceof LdcInsnNode ldcInsn && ldcInsn.cst instanceof String;
+
+            if (insn.getOpcode() == Opcodes.ATHROW) {
+                return buildsMessage && isReportingCall(insn.getPrevious()) ? handler : null;
+            }
+
+            if (insn.getOpcode() >= Opcodes.IRETURN && insn.getOpcode() <= Opcodes.RETURN) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isReportingCall(AbstractInsnNode insn) {
+        if (!(insn instanceof MethodInsnNode methodInsn) || methodInsn.getOpcode() != Opcodes.INVOKESTATIC) {
+            return false;
+        }
+        var argumentTypes = Type.getArgumentTypes(methodInsn.desc);
+        return argumentTypes.length == 2
+                && argumentTypes[0].getInternalName().equals("java/lang/Throwable")
+                && argumentTypes[1].getInternalName().equals("java/lang/String")
+                && Type.getReturnType(methodInsn.desc).getSort() == Type.OBJECT;
+    }
+
+    private static Set<LabelNode> referencedLabels(MethodNode methodNode) {
+        var referenced = new HashSet<LabelNode>();
+
+        for (var insn : methodNode.instructions) {
+            if (insn instanceof JumpInsnNode jumpInsn) {
+                referenced.add(jumpInsn.label);
+            } else if (insn instanceof TableSwitchInsnNode switchInsn) {
+                referenced.addAll(switchInsn.labels);
+                referenced.add(switchInsn.dflt);
+            } else if (insn instanceof LookupSwitchInsnNode switchInsn) {
+                referenced.addAll(switchInsn.labels);
+                referenced.add(switchInsn.dflt);
+            }
+        }
+
+        for (var tryCatchBlock : methodNode.tryCatchBlocks) {
+            referenced.add(tryCatchBlock.start);
+            referenced.add(tryCatchBlock.end);
+            referenced.add(tryCatchBlock.handler);
+        }
+        return referenced;
+    }
+
+    public record WrapperConfig(List<String> exempt) {
+
+    }
+}
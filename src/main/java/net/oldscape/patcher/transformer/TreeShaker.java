@@ -0,0 +1,563 @@
+package net.oldscape.patcher.transformer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import net.oldscape.patcher.Transformer;
+import net.oldscape.patcher.transformer.RSAPubKeyReplacer.RSAKeyFields;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.MultiANewArrayInsnNode;
+import org.objectweb.asm.tree.TypeInsnNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Modifier;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static net.oldscape.patcher.AsmUtils.codeSize;
+
+/**
+ * Removes the classes, methods and fields the client can never reach. <br/>
+ * Reachability starts from the entry points: the classes and members of tree-shake.toml, every name of mappings.toml
+ * and the RSA key fields, then follows the code of every reached method: <br/>
+ * - A class is reached when reached code or a reached member refers to it, which also reaches its super types and its
+ * static initializer;<br/>
+ * - A call reaches the method it resolves to, a virtual or interface call also reaches the overrides in every reached
+ * subclass of its owner;<br/>
+ * - The methods overriding a library method are called by the JDK, like the AWT listener methods
+ * {@link Jdk9MouseFixer} patches, and are reached with their class;<br/>
+ * - The string constants of a method calling the reflection API, or a jar method calling <code>Class.forName</code>
+ * like the synthetic <code>class$</code> method older javac versions compile the class literals to, are the names it
+ * looks up: a class is kept whole, a member name keeps the members of that name in every reached class.<br/>
+ * A field stays as long as any reached code reads or writes it. Classes named in tree-shake.toml keep all of their
+ * members, the other entry points only keep themselves.
+ */
+public class TreeShaker implements Transformer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TreeShaker.class);
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private static final Set<String> REFLECTION = Set.of("forName", "getConstructor", "getDeclaredConstructor", "getMethod", "getDeclaredMethod",
+            "getField", "getDeclaredField");
+    // static Class class$(String), generated by older javac versions for the class literals
+    private static final String CLASS_LOOKUP_DESC = "(Ljava/lang/String;)Ljava/lang/Class;";
+
+    private final Set<String> keep;
+    private final Set<String> entryPoints;
+    private final Path report;
+
+    private TreeShaker(Set<String> keep, Set<String> entryPoints, Path report) {
+        this.keep = keep;
+        this.entryPoints = entryPoints;
+        this.report = report;
+    }
+
+    /**
+     * @param report the json file to list the removed classes and members in, or null
+     */
+    public static TreeShaker create(KeepConfig config, Map<String, String> mappings, RSAKeyFields rsaKeyFields, Path report) {
+        var entryPoints = new LinkedHashSet<>(config.keep());
+        entryPoints.addAll(mappings.keySet());
+        entryPoints.add(rsaKeyFields.modulus());
+        entryPoints.add(rsaKeyFields.exponent());
+        return new TreeShaker(Set.copyOf(config.keep()), entryPoints, report);
+    }
+
+    @Override
+    public void transform(Map<String, ClassNode> classNodes) {
+        var reachability = new Reachability(classNodes);
+
+        for (var entryPoint : entryPoints) {
+            if (!reachability.enter(entryPoint, keep.contains(entryPoint))) {
+                LOGGER.debug("Entry point {} is not in the jar", entryPoint);
+            }
+        }
+        reachability.run();
+
+        var removal = remove(classNodes, reachability);
+        LOGGER.info("Removed {} unreachable classes, {} methods and {} fields, {} bytes of code", removal.classes().size(), removal.methods().size(),
+                removal.fields().size(), removal.codeBytes());
+
+        if (report != null) {
+            try {
+                JSON_MAPPER.writeValue(report.toFile(), removal);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            LOGGER.info("Wrote the removal report to {}", report);
+        }
+    }
+
+    private Removal remove(Map<String, ClassNode> classNodes, Reachability reachability) {
+        var classes = new ArrayList<String>();
+        var methods = new ArrayList<String>();
+        var fields = new ArrayList<String>();
+        var codeBytes = 0;
+
+        for (var name : new TreeSet<>(classNodes.keySet())) {
+            var classNode = classNodes.get(name);
+
+            if (!reachability.classes.contains(name)) {
+                LOGGER.debug("Removing class {}", name);
+                classes.add(name);
+                codeBytes += classNode.methods.stream().mapToInt(methodNode -> codeSize(methodNode)).sum();
+                classNodes.remove(name);
+                continue;
+            }
+
+            for (var iterator = classNode.methods.iterator(); iterator.hasNext(); ) {
+                var methodNode = iterator.next();
+
+                if (!reachability.methods.contains(methodNode)) {
+                    LOGGER.debug("Removing method {}.{}{}", name, methodNode.name, methodNode.desc);
+                    methods.add(name + "." + methodNode.name + methodNode.desc);
+                    codeBytes += codeSize(methodNode);
+                    iterator.remove();
+                }
+            }
+
+            for (var iterator = classNode.fields.iterator(); iterator.hasNext(); ) {
+                var fieldNode = iterator.next();
+
+                if (!reachability.fields.contains(fieldNode)) {
+                    LOGGER.debug("Removing field {}.{}", name, fieldNode.name);
+                    fields.add(name + "." + fieldNode.name);
+                    iterator.remove();
+                }
+            }
+        }
+
+        var removedClasses = new HashSet<>(classes);
+
+        for (var classNode : classNodes.values()) {
+            classNode.innerClasses.removeIf(innerClass -> removedClasses.contains(innerClass.name));
+        }
+        return new Removal(codeBytes, classes, methods, fields);
+    }
+
+    /**
+     * The reachable part of the jar, grown from the entry points until nothing new is reached.
+     */
+    private static final class Reachability {
+
+        private final Map<String, ClassNode> classNodes;
+
+        private final Set<String> classes = new HashSet<>();
+        private final Set<MethodNode> methods = new HashSet<>();
+        private final Set<FieldNode> fields = new HashSet<>();
+        private final ArrayDeque<Reached> pending = new ArrayDeque<>();
+
+        /**
+         * The name and descriptor of the virtual and interface calls, by the jar class they're made on.
+         */
+        private final Map<String, Set<String>> virtualCalls = new HashMap<>();
+        private final Set<String> reflectedNames = new HashSet<>();
+        private final Map<MethodNode, Boolean> callsForName = new HashMap<>();
+
+        /**
+         * The overridable methods of each library class, null when the class could not be loaded.
+         */
+        private final Map<String, Set<String>> libraryMethods = new HashMap<>();
+
+        private Reachability(Map<String, ClassNode> classNodes) {
+            this.classNodes = classNodes;
+        }
+
+        /**
+         * @param key   a class or member keyed like mappings.toml
+         * @param whole whether a class keeps all of its members
+         * @return whether the entry point is in the jar
+         */
+        boolean enter(String key, boolean whole) {
+            var separator = key.indexOf('.');
+
+            if (separator == -1) {
+                var classNode = classNodes.get(key);
+
+                if (classNode == null) {
+                    return false;
+                }
+
+                if (whole) {
+                    reachWhole(classNode);
+                } else {
+                    reachClass(key);
+                }
+                return true;
+            }
+            var classNode = classNodes.get(key.substring(0, separator));
+
+            if (classNode == null) {
+                return false;
+            }
+            var member = key.substring(separator + 1);
+            var descriptor = member.indexOf('(');
+            var found = false;
+
+            if (descriptor != -1) {
+                for (var methodNode : classNode.methods) {
+                    if (member.equals(methodNode.name + methodNode.desc)) {
+                        reachMethod(classNode, methodNode);
+                        found = true;
+                    }
+                }
+            } else {
+                for (var fieldNode : classNode.fields) {
+                    if (member.equals(fieldNode.name)) {
+                        reachField(classNode, fieldNode);
+                        found = true;
+                    }
+                }
+            }
+            return found;
+        }
+
+        /**
+         * Alternates between scanning the reached methods and dispatching the virtual calls to the reached classes,
+         * until both reach nothing new.
+         */
+        void run() {
+            do {
+                while (!pending.isEmpty()) {
+                    scan(pending.poll());
+                }
+            } while (dispatch());
+        }
+
+        private void scan(Reached reached) {
+            var methodNode = reached.method();
+
+            for (var argumentType : Type.getArgumentTypes(methodNode.desc)) {
+                reachType(argumentType);
+            }
+            reachType(Type.getReturnType(methodNode.desc));
+            methodNode.exceptions.forEach(this::reachClass);
+
+            for (var tryCatchBlock : methodNode.tryCatchBlocks) {
+                if (tryCatchBlock.type != null) {
+                    reachClass(tryCatchBlock.type);
+                }
+            }
+            var reflective = false;
+            var strings = new ArrayList<String>();
+
+            for (var insn : methodNode.instructions) {
+                if (insn instanceof MethodInsnNode methodInsn) {
+                    reachCall(methodInsn);
+                    reflective |= isReflective(methodInsn);
+                } else if (insn instanceof FieldInsnNode fieldInsn) {
+                    reachClass(fieldInsn.owner);
+                    var resolved = resolveField(fieldInsn.owner, fieldInsn.name, fieldInsn.desc);
+
+                    if (resolved != null) {
+                        reachField(resolved.owner(), resolved.field());
+                    }
+                } else if (insn instanceof TypeInsnNode typeInsn) {
+                    reachType(Type.getObjectType(typeInsn.desc));
+                } else if (insn instanceof MultiANewArrayInsnNode multiANewArrayInsn) {
+                    reachType(Type.getType(multiANewArrayInsn.desc));
+                } else if (insn instanceof LdcInsnNode ldcInsn) {
+                    if (ldcInsn.cst instanceof Type type) {
+                        reachType(type);
+                    } else if (ldcInsn.cst instanceof String string) {
+                        strings.add(string);
+                    }
+                }
+            }
+
+            if (reflective) {
+                strings.forEach(this::reachReflected);
+            }
+        }
+
+        private void reachCall(MethodInsnNode methodInsn) {
+            // clone on arrays
+            if (methodInsn.owner.startsWith("[")) {
+                reachType(Type.getObjectType(methodInsn.owner));
+                return;
+            }
+            reachClass(methodInsn.owner);
+            var resolved = resolveMethod(methodInsn.owner, methodInsn.name + methodInsn.desc);
+
+            if (resolved != null) {
+                reachMethod(resolved.owner(), resolved.method());
+            }
+            var opcode = methodInsn.getOpcode();
+
+            if ((opcode == Opcodes.INVOKEVIRTUAL || opcode == Opcodes.INVOKEINTERFACE) && classNodes.containsKey(methodInsn.owner)) {
+                virtualCalls.computeIfAbsent(methodInsn.owner, owner -> new HashSet<>()).add(methodInsn.name + methodInsn.desc);
+            }
+        }
+
+        /**
+         * @return whether the call looks names up by reflection, directly or through a jar method calling
+         * <code>Class.forName</code>
+         */
+        private boolean isReflective(MethodInsnNode methodInsn) {
+            if (methodInsn.owner.equals("java/lang/Class")) {
+                return REFLECTION.contains(methodInsn.name);
+            }
+
+            if (classNodes.containsKey(methodInsn.owner) && methodInsn.desc.equals(CLASS_LOOKUP_DESC)) {
+                return true;
+            }
+            var resolved = resolveMethod(methodInsn.owner, methodInsn.name + methodInsn.desc);
+            return resolved != null && callsForName.computeIfAbsent(resolved.method(), Reachability::callsForName);
+        }
+
+        private static boolean callsForName(MethodNode methodNode) {
+            for (var insn : methodNode.instructions) {
+                if (insn instanceof MethodInsnNode methodInsn && methodInsn.owner.equals("java/lang/Class") && methodInsn.name.equals("forName")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void reachReflected(String name) {
+            var classNode = classNodes.get(name.replace('.', '/'));
+
+            if (classNode != null) {
+                reachWhole(classNode);
+            } else {
+                reflectedNames.add(name);
+            }
+        }
+
+        /**
+         * Reaches the methods of the reached classes the calls seen so far can dispatch to, the methods overriding
+         * library methods and the members named in reflection calls.
+         *
+         * @return whether anything new was reached
+         */
+        private boolean dispatch() {
+            var before = classes.size() + methods.size();
+
+            for (var name : List.copyOf(classes)) {
+                var classNode = classNodes.get(name);
+
+                for (var superType : superTypes(classNode)) {
+                    if (classNodes.containsKey(superType)) {
+                        for (var signature : virtualCalls.getOrDefault(superType, Set.of())) {
+                            reachOverride(classNode, signature);
+                        }
+                        continue;
+                    }
+                    var overridable = libraryMethods(superType);
+
+                    if (overridable != null) {
+                        overridable.forEach(signature -> reachOverride(classNode, signature));
+                        continue;
+                    }
+
+                    for (var methodNode : classNode.methods) {
+                        if ((methodNode.access & (Opcodes.ACC_STATIC | Opcodes.ACC_PRIVATE)) == 0 && !methodNode.name.startsWith("<")) {
+                            reachMethod(classNode, methodNode);
+                        }
+                    }
+                }
+
+                if (!reflectedNames.isEmpty()) {
+                    classNode.methods.stream().filter(methodNode -> reflectedNames.contains(methodNode.name)).forEach(methodNode -> reachMethod(classNode, methodNode));
+                    classNode.fields.stream().filter(fieldNode -> reflectedNames.contains(fieldNode.name)).forEach(fieldNode -> reachField(classNode, fieldNode));
+                }
+            }
+            return classes.size() + methods.size() != before;
+        }
+
+        private void reachOverride(ClassNode classNode, String signature) {
+            var resolved = resolveMethod(classNode.name, signature);
+
+            if (resolved != null) {
+                reachMethod(resolved.owner(), resolved.method());
+            }
+        }
+
+        /**
+         * @return the class, its super types in the jar and the library types they directly extend or implement
+         */
+        private Set<String> superTypes(ClassNode classNode) {
+            var superTypes = new LinkedHashSet<String>();
+            var stack = new ArrayDeque<String>();
+            stack.push(classNode.name);
+
+            while (!stack.isEmpty()) {
+                var name = stack.pop();
+
+                if (!superTypes.add(name)) {
+                    continue;
+                }
+                var superClass = classNodes.get(name);
+
+                if (superClass != null) {
+                    if (superClass.superName != null) {
+                        stack.push(superClass.superName);
+                    }
+                    superClass.interfaces.forEach(stack::push);
+                }
+            }
+            return superTypes;
+        }
+
+        private Set<String> libraryMethods(String name) {
+            if (libraryMethods.containsKey(name)) {
+                return libraryMethods.get(name);
+            }
+            Set<String> overridable;
+
+            try {
+                overridable = new HashSet<>();
+                addOverridable(Class.forName(name.replace('/', '.'), false, ClassLoader.getPlatformClassLoader()), overridable);
+            } catch (ClassNotFoundException | LinkageError e) {
+                LOGGER.warn("Could not load the library class {}, keeping every method of its subclasses", name);
+                overridable = null;
+            }
+            libraryMethods.put(name, overridable);
+            return overridable;
+        }
+
+        private static void addOverridable(Class<?> type, Set<String> overridable) {
+            for (var method : type.getDeclaredMethods()) {
+                if (!Modifier.isStatic(method.getModifiers()) && !Modifier.isPrivate(method.getModifiers())) {
+                    overridable.add(method.getName() + Type.getMethodDescriptor(method));
+                }
+            }
+
+            if (type.getSuperclass() != null) {
+                addOverridable(type.getSuperclass(), overridable);
+            }
+
+            for (var itf : type.getInterfaces()) {
+                addOverridable(itf, overridable);
+            }
+        }
+
+        /**
+         * Looks the method up the class hierarchy like the JVM does, only within the jar.
+         */
+        private Reached resolveMethod(String owner, String signature) {
+            var classNode = owner == null ? null : classNodes.get(owner);
+
+            if (classNode == null) {
+                return null;
+            }
+
+            for (var methodNode : classNode.methods) {
+                if (signature.equals(methodNode.name + methodNode.desc)) {
+                    return new Reached(classNode, methodNode);
+                }
+            }
+            var inherited = resolveMethod(classNode.superName, signature);
+
+            for (var iterator = classNode.interfaces.iterator(); inherited == null && iterator.hasNext(); ) {
+                inherited = resolveMethod(iterator.next(), signature);
+            }
+            return inherited;
+        }
+
+        private ReachedField resolveField(String owner, String name, String desc) {
+            var classNode = owner == null ? null : classNodes.get(owner);
+
+            if (classNode == null) {
+                return null;
+            }
+
+            for (var fieldNode : classNode.fields) {
+                if (fieldNode.name.equals(name) && fieldNode.desc.equals(desc)) {
+                    return new ReachedField(classNode, fieldNode);
+                }
+            }
+            ReachedField inherited = null;
+
+            for (var iterator = classNode.interfaces.iterator(); inherited == null && iterator.hasNext(); ) {
+                inherited = resolveField(iterator.next(), name, desc);
+            }
+            return inherited != null ? inherited : resolveField(classNode.superName, name, desc);
+        }
+
+        private void reachWhole(ClassNode classNode) {
+            reachClass(classNode.name);
+            classNode.methods.forEach(methodNode -> reachMethod(classNode, methodNode));
+            classNode.fields.forEach(fieldNode -> reachField(classNode, fieldNode));
+        }
+
+        private void reachClass(String name) {
+            var classNode = classNodes.get(name);
+
+            if (classNode == null || !classes.add(name)) {
+                return;
+            }
+
+            if (classNode.superName != null) {
+                reachClass(classNode.superName);
+            }
+            classNode.interfaces.forEach(this::reachClass);
+
+            for (var methodNode : classNode.methods) {
+                if (methodNode.name.equals("<clinit>")) {
+                    reachMethod(classNode, methodNode);
+                }
+            }
+        }
+
+        private void reachType(Type type) {
+            if (type.getSort() == Type.ARRAY) {
+                type = type.getElementType();
+            }
+
+            if (type.getSort() == Type.OBJECT) {
+                reachClass(type.getInternalName());
+            }
+        }
+
+        private void reachMethod(ClassNode owner, MethodNode methodNode) {
+            if (methods.add(methodNode)) {
+                reachClass(owner.name);
+                pending.add(new Reached(owner, methodNode));
+            }
+        }
+
+        private void reachField(ClassNode owner, FieldNode fieldNode) {
+            if (fields.add(fieldNode)) {
+                reachClass(owner.name);
+                reachType(Type.getType(fieldNode.desc));
+            }
+        }
+    }
+
+    private record Reached(ClassNode owner, MethodNode method) {
+
+    }
+
+    private record ReachedField(ClassNode owner, FieldNode field) {
+
+    }
+
+    /**
+     * The removal report, the classes and members keyed like mappings.toml.
+     */
+    private record Removal(int codeBytes, List<String> classes, List<String> methods, List<String> fields) {
+
+    }
+
+    public record KeepConfig(List<String> keep) {
+
+    }
+}